@@ -1,11 +1,12 @@
 package engine;
 
+import engine.storage.Memory;
 import engine.types.Register;
 import engine.types.Instruction;
+import engine.types.Opcode;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.ArrayList;
-import java.lang.reflect.Method;
+import java.util.TreeMap;
 
 public final class Assembler {
 
@@ -14,7 +15,8 @@ public final class Assembler {
 		throw new IllegalStateException("Utility class");
 	}
 
-	public static void assemble(String data, String program, Processor processor) {
+	// The assembler keeps its state in static fields, so programs are assembled one at a time
+	public static synchronized void assemble(String data, String program, Processor processor) {
 		String noInstructionsString = "Please enter one or more instructions";
 		if (program.trim().isEmpty()) {
 			throw new IllegalArgumentException(noInstructionsString);
@@ -23,6 +25,7 @@ public final class Assembler {
 		// Resetting static variables
 		processor.clear();
 		tags.clear();
+		labels.clear();
 		instructionAddress = 0;
 
 		
@@ -138,38 +141,39 @@ public final class Assembler {
 			parsePseudoInstruction(operation, operands, processor);
 			return;
 		}
-		Method m = InstructionSet.getMethod(operation);
-		if (m == null) {
+		Opcode opcode = Opcode.fromMnemonic(operation);
+		if (opcode == null) {
 			throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + operation + " is an invalid operation");
 		}
-		Class<?>[] types = m.getParameterTypes();
-		if (types.length != operands.length) 
+		if (opcode.getOperands() != operands.length) 
 			throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Invalid operands number");
 		
-		Object[] parameters = new Object[types.length];
-		for (int i = 0; i < types.length; i++) {
-			if (types[i] == Register.class) {
+		int[] registers = new int[opcode.getRegisters()];
+		int immediate = 0;
+		for (int i = 0; i < operands.length; i++) {
+			if (i < registers.length) {
 				Register r = processor.getRegisterFile().getRegister(operands[i]);
 				if (r == null) {
 					throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + operands[i] + " is an invalid register name");
 				}
-				parameters[i] = r;
-			} else if (types[i] == int.class) {
-				Integer immediate = parseIntegerNoThrow(operands[i]); 
-				if (immediate != null)
+				registers[i] = r.getNumber();
+			} else {
+				Integer value = parseIntegerNoThrow(operands[i]); 
+				if (value != null)
 				{
-					if (operation.equals("lui") && (immediate < 0 || immediate > 0x3ff)) {
+					if (operation.equals("lui") && (value < 0 || value > 0x3ff)) {
 						throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Upper immediate must be a value between 0x000 and 0x3ff");
 					}
-					else if (!operation.equals("lui") && (immediate < -64 || immediate > 63)) {
+					else if (!operation.equals("lui") && (value < -64 || value > 63)) {
 						throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Signed immediate must be a value between -64 and 63");
 					}
-					parameters[i] = immediate;
+					immediate = value;
 				}
 				else
 				{
 					if (operation.equals("beq")) {
-                        parameters[i] = operands[i];
+						// The offset is patched into the encoded instruction once all labels are known
+                        labels.put(processor.getMemory().getInstructionCount(), operands[i]);
 					}
 					else {
 						throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Invalid immediate operand: " + operands[i]);
@@ -177,7 +181,7 @@ public final class Assembler {
 				}
 			}
 		}
-		processor.getMemory().addInstruction(operation, parameters);
+		processor.getMemory().addInstruction(Instruction.encode(opcode, registers, immediate));
 	}
 	
 	private static void parseData(String data, Processor processor) {
@@ -304,26 +308,21 @@ public final class Assembler {
 	}
 
     private static void resolveSymbolicLabels(Processor processor) {
-        ArrayList<Instruction> instructions = processor.getMemory().getInstructions();
-        for (int i = 0; i < instructions.size(); i++) {
-            Instruction instr = instructions.get(i);
-            Object[] operands = instr.getOperands();
-            int currentAddress = i * 2;
-            for (int j = 0; j < operands.length; j++) {
-				System.out.println("operand " + j + ": " + operands[j] + " with type: " + operands[j].getClass());
-                if (operands[j] instanceof String label) {
-                    if (!tags.containsKey(label)) {
-						throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Undefined label");
-					}
-                    int targetAddress = tags.get(label);
-                    int offset = targetAddress - currentAddress - 2;
-                    if (offset < -64 || offset > 63)
-					{
-						throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Branch offset out of range");
-					}
-                    operands[j] = offset;
-                }
-            }
+        Memory memory = processor.getMemory();
+        for (Map.Entry<Integer, String> entry : labels.entrySet()) {
+            String label = entry.getValue();
+            int currentAddress = entry.getKey() * 2;
+            if (!tags.containsKey(label)) {
+				throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Undefined label");
+			}
+            int targetAddress = tags.get(label);
+            int offset = targetAddress - currentAddress - 2;
+            if (offset < -64 || offset > 63)
+			{
+				throw new IllegalArgumentException("Line " + instructionAddress / 2 + ": " + "Branch offset out of range");
+			}
+            int address = memory.getInstructionsStartAddress() + currentAddress;
+            memory.setInstructionWord(address, Instruction.withImmediate(memory.getInstructionWord(address), offset));
         }
     }
 
@@ -331,6 +330,8 @@ public final class Assembler {
 	private static int instructionAddress = 0;
 	
 	private static HashMap<String, Integer> tags = new HashMap<>();
+	// The instructions (by index) whose immediate operand is a label that still has to be resolved
+	private static TreeMap<Integer, String> labels = new TreeMap<>();
 	// The pseudoInstructions to check against as well as how many operands they have (Java object instantiation sucks)
 	private static final HashMap<String, Integer> pseudoInstructions = new HashMap<>(Map.of("nop", 0, "halt", 0, "lli", 2, "movi", 2, ".fill", 1, ".space", 1));
 }
\ No newline at end of file
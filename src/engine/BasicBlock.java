@@ -0,0 +1,46 @@
+package engine;
+
+public class BasicBlock {
+	
+	// A straight run of instructions ending at the first branch or jump, with every instruction's operands already bound
+	private final int address;
+	private final int[] words;
+	private final Runnable[] handlers;
+	private int executions;
+	private CompiledBlock compiled;
+	
+	public BasicBlock(int address, int[] words, Runnable[] handlers) {
+		this.address = address;
+		this.words = words;
+		this.handlers = handlers;
+	}
+	
+	public int getAddress() {
+		return address;
+	}
+	
+	public int size() {
+		return words.length;
+	}
+	
+	public int getWord(int index) {
+		return words[index];
+	}
+	
+	public void execute(int index) {
+		handlers[index].run();
+	}
+	
+	public int countExecution() {
+		return ++executions;
+	}
+	
+	public CompiledBlock getCompiled() {
+		return compiled;
+	}
+	
+	public void setCompiled(CompiledBlock compiled) {
+		this.compiled = compiled;
+	}
+	
+}
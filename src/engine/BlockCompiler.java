@@ -0,0 +1,445 @@
+package engine;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.HashMap;
+
+import engine.types.FunctionType;
+import engine.types.Instruction;
+import engine.types.Opcode;
+
+public class BlockCompiler {
+	
+	// Blocks are compiled into straight-line bytecode with no jumps, so the class needs no stack map frames
+	private static final int VERSION = 52;
+	private static final int MAX_INSTRUCTIONS = 256;
+	
+	private static final String RUNTIME = "engine/BlockRuntime";
+	
+	private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ICONST_M1 = 0x02, ICONST_1 = 0x04, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+	private static final int ILOAD = 0x15, ISTORE = 0x36, POP = 0x57, IADD = 0x60, ISUB = 0x64, IMUL = 0x68, INEG = 0x74, ISHR = 0x7a;
+	private static final int IAND = 0x7e, IOR = 0x80, IXOR = 0x82, I2L = 0x85, I2S = 0x93, LCMP = 0x94, IRETURN = 0xac, RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6, INVOKESPECIAL = 0xb7;
+	
+	// Local variable slots of the generated execute method
+	private static final int RUNTIME_SLOT = 1, REGISTER_SLOT = 2, TARGET_SLOT = 10, ADDRESS_SLOT = 11;
+	
+	private MethodHandles.Lookup lookup;
+	
+	private ByteArrayOutputStream pool;
+	private HashMap<String, Integer> constants;
+	private int poolSize;
+	private ByteArrayOutputStream code;
+	private int dirty;
+	private int compiled;
+	private int failures;
+	private String lastFailure;
+	
+	public BlockCompiler() {
+		lookup = MethodHandles.lookup();
+	}
+	
+	public CompiledBlock compile(BasicBlock block) {
+		if (block.size() > MAX_INSTRUCTIONS)
+			return null;
+		
+		try {
+			byte[] bytes = assemble(block);
+			Class<?> type = lookup.defineHiddenClass(bytes, true).lookupClass();
+			CompiledBlock instance = (CompiledBlock)type.getDeclaredConstructor().newInstance();
+			compiled++;
+			return instance;
+		} catch (Exception | LinkageError ex) {
+			// The block still runs through its bound handlers, but a class the verifier rejects is a bug in this compiler
+			failures++;
+			lastFailure = ex.toString();
+			return null;
+		}
+	}
+	
+	public int getCompiled() {
+		return compiled;
+	}
+	
+	// Blocks that failed to assemble or to load, too long ones not counting
+	public int getFailures() {
+		return failures;
+	}
+	
+	public String getLastFailure() {
+		return lastFailure;
+	}
+	
+	private byte[] assemble(BasicBlock block) {
+		pool = new ByteArrayOutputStream();
+		constants = new HashMap<String, Integer>();
+		poolSize = 1;
+		code = new ByteArrayOutputStream();
+		dirty = 0;
+		
+		for (int i = 0; i < 8; i++) {
+			if ((reads(block) & (1 << i)) == 0)
+				continue;
+			callRuntime("getRegister", "(I)I", i);
+			op(ISTORE, REGISTER_SLOT + i);
+		}
+		
+		int target = block.getAddress() + block.size() * 2;
+		boolean branches = false;
+		for (int i = 0; i < block.size(); i++) {
+			int pc = block.getAddress() + i * 2;
+			int word = block.getWord(i);
+			callRuntime("fetch", "(I)V", pc);
+			branches = instruction(pc, word);
+			
+			Opcode opcode = Instruction.opcodeOf(word);
+			FunctionType function = opcode.getFunction();
+			boolean writes = function != FunctionType.STORE && function != FunctionType.BRANCH && function != FunctionType.JUMP;
+			op(ALOAD_1);
+			push(pc);
+			push(word);
+			push(function.ordinal());
+			push((writes)? Instruction.registerOf(word, 0) : -1);
+			if (branches)
+				op(ILOAD, TARGET_SLOT);
+			else if (opcode == Opcode.LW || opcode == Opcode.SW)
+				op(ILOAD, ADDRESS_SLOT);
+			else
+				push(-1);
+			invoke("retire", "(IIIII)V");
+		}
+		
+		flush();
+		if (branches)
+			op(ILOAD, TARGET_SLOT);
+		else
+			push(target);
+		op(IRETURN);
+		byte[] execute = code.toByteArray();
+		
+		code = new ByteArrayOutputStream();
+		op(ALOAD_0);
+		op(INVOKESPECIAL);
+		u2(code, method("java/lang/Object", "<init>", "()V"));
+		op(RETURN);
+		byte[] constructor = code.toByteArray();
+		
+		int thisClass = type("engine/CompiledBlockImpl");
+		int superClass = type("java/lang/Object");
+		int compiledBlock = type("engine/CompiledBlock");
+		int init = utf8("<init>"), initType = utf8("()V");
+		int name = utf8("execute"), descriptor = utf8("(L" + RUNTIME + ";)I");
+		int codeName = utf8("Code");
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		u4(out, 0xcafebabe);
+		u2(out, 0);
+		u2(out, VERSION);
+		u2(out, poolSize);
+		out.writeBytes(pool.toByteArray());
+		u2(out, 0x0031);
+		u2(out, thisClass);
+		u2(out, superClass);
+		u2(out, 1);
+		u2(out, compiledBlock);
+		u2(out, 0);
+		u2(out, 2);
+		method(out, init, initType, codeName, 1, 1, constructor);
+		method(out, name, descriptor, codeName, 8, 12, execute);
+		u2(out, 0);
+		return out.toByteArray();
+	}
+	
+	// Registers whose value is used before being written in the block, the only ones loaded on entry
+	private static int reads(BasicBlock block) {
+		int reads = 0, written = 0;
+		for (int i = 0; i < block.size(); i++) {
+			int word = block.getWord(i);
+			Opcode opcode = Instruction.opcodeOf(word);
+			for (int j = (opcode.getFunction() == FunctionType.STORE || opcode.getFunction() == FunctionType.BRANCH || opcode.getFunction() == FunctionType.JUMP)? 0 : 1; j < opcode.getRegisters(); j++)
+				reads |= (1 << Instruction.registerOf(word, j)) & ~written;
+			// Writes to R0 are dropped, so R0 read after one is still loaded
+			if (opcode.getFunction() != FunctionType.STORE && opcode.getFunction() != FunctionType.BRANCH && opcode.getFunction() != FunctionType.JUMP)
+				written |= (1 << Instruction.registerOf(word, 0)) & ~1;
+		}
+		return reads;
+	}
+	
+	// Emits one instruction and returns whether it ends the block with its target left in TARGET_SLOT
+	private boolean instruction(int pc, int word) {
+		Opcode opcode = Instruction.opcodeOf(word);
+		int r1 = Instruction.registerOf(word, 0);
+		int r2 = Instruction.registerOf(word, 1);
+		int r3 = Instruction.registerOf(word, 2);
+		int immediate = Instruction.immediateOf(word);
+		switch (opcode) {
+			case ADD : arithmetic(r1, r2, r3, 0, IADD); break;
+			case ADDI : arithmetic(r1, r2, -1, immediate, IADD); break;
+			case SUB : arithmetic(r1, r2, r3, 0, ISUB); break;
+			case SUBI : arithmetic(r1, r2, -1, immediate, ISUB); break;
+			case AND : arithmetic(r1, r2, r3, 0, IAND); break;
+			case ANDI : arithmetic(r1, r2, -1, immediate, IAND); break;
+			case OR : arithmetic(r1, r2, r3, 0, IOR); break;
+			case ORI : arithmetic(r1, r2, -1, immediate, IOR); break;
+			case MUL : arithmetic(r1, r2, r3, 0, IMUL); break;
+			case MULI : arithmetic(r1, r2, -1, immediate, IMUL); break;
+			case NAND :
+			case NOR :
+				op(ILOAD, REGISTER_SLOT + r2);
+				op(ILOAD, REGISTER_SLOT + r3);
+				op((opcode == Opcode.NAND)? IAND : IOR);
+				op(ICONST_M1);
+				op(IXOR);
+				write(r1);
+				break;
+			case LUI :
+				push((short)(immediate << 6));
+				write(r1);
+				break;
+			case DIV :
+			case DIVI :
+			case MOD :
+			case MODI :
+				flush();
+				op(ALOAD_1);
+				push(pc);
+				op(ILOAD, REGISTER_SLOT + r2);
+				if (r3 == -1)
+					push(immediate);
+				else
+					op(ILOAD, REGISTER_SLOT + r3);
+				invoke((opcode == Opcode.DIV || opcode == Opcode.DIVI)? "divide" : "remainder", "(III)I");
+				write(r1);
+				break;
+			case LW :
+				address(r2, immediate);
+				flush();
+				op(ALOAD_1);
+				push(pc);
+				op(ILOAD, ADDRESS_SLOT);
+				invoke("load", "(II)I");
+				write(r1);
+				break;
+			case SW :
+				address(r2, immediate);
+				flush();
+				op(ALOAD_1);
+				push(pc);
+				op(ILOAD, ADDRESS_SLOT);
+				op(ILOAD, REGISTER_SLOT + r1);
+				invoke("store", "(III)V");
+				break;
+			case BEQ :
+			case BNE :
+			case BGT :
+			case BLT :
+			case BGE :
+			case BLE :
+				branch(opcode, r1, r2);
+				push(immediate);
+				op(IMUL);
+				push(pc + 2);
+				op(IADD);
+				return jump(pc);
+			case JMP :
+				op(ILOAD, REGISTER_SLOT + r1);
+				push(pc + 2 + immediate);
+				op(IADD);
+				return jump(pc);
+			case RET :
+				op(ILOAD, REGISTER_SLOT + r1);
+				return jump(pc);
+			case JALR :
+				push((short)(pc + 2));
+				write(r1);
+				op(ILOAD, REGISTER_SLOT + r2);
+				return jump(pc);
+			default :
+				throw new IllegalArgumentException(opcode.getMnemonic() + " can't be compiled");
+		}
+		return false;
+	}
+	
+	private void arithmetic(int destination, int source, int source2, int immediate, int operation) {
+		op(ILOAD, REGISTER_SLOT + source);
+		if (source2 == -1)
+			push(immediate);
+		else
+			op(ILOAD, REGISTER_SLOT + source2);
+		op(operation);
+		write(destination);
+	}
+	
+	// Leaves 1 on the stack when the branch is taken and 0 otherwise, using lcmp's -1/0/1 result instead of jumps
+	private void branch(Opcode opcode, int r1, int r2) {
+		op(ILOAD, REGISTER_SLOT + r1);
+		op(I2L);
+		op(ILOAD, REGISTER_SLOT + r2);
+		op(I2L);
+		op(LCMP);
+		switch (opcode) {
+			case BEQ : op(ICONST_1); op(IAND); op(ICONST_1); op(IXOR); break;
+			case BNE : op(ICONST_1); op(IAND); break;
+			case BGT : op(ICONST_1); op(IADD); op(ICONST_1); op(ISHR); break;
+			case BLE : op(ICONST_1); op(IADD); op(ICONST_1); op(ISHR); op(ICONST_1); op(IXOR); break;
+			case BLT : op(INEG); op(ICONST_1); op(IADD); op(ICONST_1); op(ISHR); break;
+			default : op(INEG); op(ICONST_1); op(IADD); op(ICONST_1); op(ISHR); op(ICONST_1); op(IXOR); break;
+		}
+	}
+	
+	private boolean jump(int pc) {
+		op(ISTORE, TARGET_SLOT);
+		flush();
+		op(ALOAD_1);
+		push(pc);
+		op(ILOAD, TARGET_SLOT);
+		invoke("jump", "(II)V");
+		return true;
+	}
+	
+	private void address(int base, int immediate) {
+		op(ILOAD, REGISTER_SLOT + base);
+		push(immediate);
+		op(IADD);
+		op(ISTORE, ADDRESS_SLOT);
+	}
+	
+	// Stores the value on the stack into a register local, truncated to a word; writes to R0 are dropped
+	private void write(int register) {
+		if (register == 0) {
+			op(POP);
+			return;
+		}
+		op(I2S);
+		op(ISTORE, REGISTER_SLOT + register);
+		dirty |= 1 << register;
+	}
+	
+	// Writes the modified register locals back before anything that can fail or leave the block
+	private void flush() {
+		for (int i = 1; i < 8; i++) {
+			if ((dirty & (1 << i)) == 0)
+				continue;
+			op(ALOAD_1);
+			push(i);
+			op(ILOAD, REGISTER_SLOT + i);
+			invoke("setRegister", "(II)V");
+		}
+		dirty = 0;
+	}
+	
+	private void callRuntime(String name, String descriptor, int argument) {
+		op(ALOAD_1);
+		push(argument);
+		invoke(name, descriptor);
+	}
+	
+	private void invoke(String name, String descriptor) {
+		op(INVOKEVIRTUAL);
+		u2(code, method(RUNTIME, name, descriptor));
+	}
+	
+	private void push(int value) {
+		if (value >= -128 && value <= 127) {
+			op(BIPUSH);
+			code.write(value);
+		} else if (value >= -32768 && value <= 32767) {
+			op(SIPUSH);
+			u2(code, value);
+		} else {
+			op(LDC_W);
+			u2(code, integer(value));
+		}
+	}
+	
+	private void op(int opcode) {
+		code.write(opcode);
+	}
+	
+	private void op(int opcode, int slot) {
+		code.write(opcode);
+		code.write(slot);
+	}
+	
+	private int utf8(String value) {
+		Integer index = constants.get("U" + value);
+		if (index != null)
+			return index;
+		
+		pool.write(1);
+		byte[] bytes = value.getBytes();
+		u2(pool, bytes.length);
+		pool.writeBytes(bytes);
+		constants.put("U" + value, poolSize);
+		return poolSize++;
+	}
+	
+	private int type(String name) {
+		Integer index = constants.get("C" + name);
+		if (index != null)
+			return index;
+		
+		int utf8 = utf8(name);
+		pool.write(7);
+		u2(pool, utf8);
+		constants.put("C" + name, poolSize);
+		return poolSize++;
+	}
+	
+	private int method(String owner, String name, String descriptor) {
+		String key = "M" + owner + "." + name + descriptor;
+		Integer index = constants.get(key);
+		if (index != null)
+			return index;
+		
+		int ownerType = type(owner);
+		int nameUtf8 = utf8(name);
+		int descriptorUtf8 = utf8(descriptor);
+		pool.write(12);
+		u2(pool, nameUtf8);
+		u2(pool, descriptorUtf8);
+		int nameAndType = poolSize++;
+		pool.write(10);
+		u2(pool, ownerType);
+		u2(pool, nameAndType);
+		constants.put(key, poolSize);
+		return poolSize++;
+	}
+	
+	private int integer(int value) {
+		Integer index = constants.get("I" + value);
+		if (index != null)
+			return index;
+		
+		pool.write(3);
+		u4(pool, value);
+		constants.put("I" + value, poolSize);
+		return poolSize++;
+	}
+	
+	private static void method(ByteArrayOutputStream out, int name, int descriptor, int codeName, int maxStack, int maxLocals, byte[] code) {
+		u2(out, 0x0001);
+		u2(out, name);
+		u2(out, descriptor);
+		u2(out, 1);
+		u2(out, codeName);
+		u4(out, 12 + code.length);
+		u2(out, maxStack);
+		u2(out, maxLocals);
+		u4(out, code.length);
+		out.writeBytes(code);
+		u2(out, 0);
+		u2(out, 0);
+	}
+	
+	private static void u2(ByteArrayOutputStream out, int value) {
+		out.write(value >> 8);
+		out.write(value);
+	}
+	
+	private static void u4(ByteArrayOutputStream out, int value) {
+		u2(out, value >>> 16);
+		u2(out, value);
+	}
+	
+}
@@ -0,0 +1,99 @@
+package engine;
+
+import engine.types.AccessResult;
+import engine.types.ExecutionResult;
+import engine.types.FunctionType;
+
+public class BlockRuntime {
+	
+	private static final FunctionType[] functionTypes = FunctionType.values();
+	
+	// Callbacks used by compiled blocks for everything that touches the caches, the schedule or can fail.
+	// Failing callbacks leave the pc on the failing instruction, as the interpreter does.
+	private Processor processor;
+	private ExecutionResult result;
+	private AccessResult access;
+	private int executionTime;
+	private int level;
+	
+	public BlockRuntime(Processor processor) {
+		this.processor = processor;
+		result = new ExecutionResult();
+		access = new AccessResult();
+		executionTime = -1;
+	}
+	
+	public int getRegister(int number) {
+		return processor.getRegisterFile().getRegister(number).getValue();
+	}
+	
+	public void setRegister(int number, int value) {
+		processor.getRegisterFile().getRegister(number).setValue((short)value);
+	}
+	
+	public void fetch(int pc) {
+		processor.getInstructionCache().getInstruction(pc);
+	}
+	
+	public int load(int pc, int effectiveAddress) {
+		processor.getRegisterFile().setPc(pc);
+		if (!processor.getMemory().isWordAddress(effectiveAddress))
+			throw new IllegalArgumentException("Invalid word address (" + effectiveAddress + ")");
+		
+		if (processor.getStackDistance() != null)
+			processor.getStackDistance().access(effectiveAddress);
+		
+		access.clear();
+		access.setPc(pc);
+		short value = processor.getDataCache(0).readWord(effectiveAddress, access);
+		executionTime = access.getCycles();
+		level = access.getLevel();
+		return value;
+	}
+	
+	public void store(int pc, int effectiveAddress, int value) {
+		processor.getRegisterFile().setPc(pc);
+		if (!processor.getMemory().isWordAddress(effectiveAddress))
+			throw new IllegalArgumentException("Invalid word address (" + effectiveAddress + ")");
+		
+		if (processor.getStackDistance() != null)
+			processor.getStackDistance().access(effectiveAddress);
+		
+		access.clear();
+		access.setPc(pc);
+		processor.getDataCache(0).writeWord(effectiveAddress, (short)value, access);
+		executionTime = access.getCycles();
+		level = access.getLevel();
+	}
+	
+	public int divide(int pc, int dividend, int divisor) {
+		if (divisor == 0) {
+			processor.getRegisterFile().setPc(pc);
+			throw new IllegalArgumentException("Can not divide by zero");
+		}
+		return dividend / divisor;
+	}
+	
+	public int remainder(int pc, int dividend, int divisor) {
+		if (divisor == 0) {
+			processor.getRegisterFile().setPc(pc);
+			throw new IllegalArgumentException(dividend + " % 0 is undefined");
+		}
+		return dividend % divisor;
+	}
+	
+	public void jump(int pc, int target) {
+		if (!processor.getMemory().isInstructionAddress(target)) {
+			processor.getRegisterFile().setPc(pc);
+			throw new IllegalArgumentException("Invalid instruction address (" + target + ")");
+		}
+	}
+	
+	public void retire(int pc, int word, int function, int destination, int effectiveAddress) {
+		result.set(functionTypes[function], destination, effectiveAddress, executionTime, level);
+		executionTime = -1;
+		level = 0;
+		processor.getUnitSet().addExecutedInstruction(pc, word, result);
+	}
+	
+}
@@ -0,0 +1,8 @@
+package engine;
+
+public interface CompiledBlock {
+	
+	// Runs the whole block against the runtime's processor and returns the address of the next instruction
+	int execute(BlockRuntime runtime);
+	
+}
@@ -1,208 +1,304 @@
 package engine;
-import java.lang.reflect.Method;
 
+import engine.types.AccessResult;
+import engine.types.Addressable;
+import engine.types.ExecutionResult;
 import engine.types.FunctionType;
+import engine.types.Instruction;
 import engine.types.Register;
 
 
 public class InstructionSet {
 	
 	private Processor processor;
+	private ExecutionResult result;
+	private AccessResult access;
+	private boolean functional;
 	
 	public InstructionSet(Processor processor) {
 		this.processor = processor;
+		result = new ExecutionResult();
+		access = new AccessResult();
 	}
 	
-	public Object[] add(Register r1, Register r2, Register r3) {
+	public void add(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(r2.getValue() + r3.getValue()));
-		return new Object[]{FunctionType.ADD, r1.getNumber(), -1};
+		result.set(FunctionType.ADD, r1.getNumber(), -1);
 	}
 	
-	public Object[] addi(Register r1, Register r2, int immediate) {
+	public void addi(Register r1, Register r2, int immediate) {
 		r1.setValue((short)(r2.getValue() + immediate));
-		return new Object[]{FunctionType.ADD, r1.getNumber(), -1};
+		result.set(FunctionType.ADD, r1.getNumber(), -1);
 	}
 
-	public Object[] lui(Register r, int immediate) {
+	public void lui(Register r, int immediate) {
 		r.setValue((short)(immediate << 6));
-		return new Object[]{FunctionType.LOAD, r.getNumber(), -1};
+		result.set(FunctionType.LOAD, r.getNumber(), -1);
 	}
 	
-	public Object[] sub(Register r1, Register r2, Register r3) {
+	public void sub(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(r2.getValue() - r3.getValue()));
-		return new Object[]{FunctionType.ADD, r1.getNumber(), -1};
+		result.set(FunctionType.ADD, r1.getNumber(), -1);
 	}
 	
-	public Object[] subi(Register r1, Register r2, int immediate) {
+	public void subi(Register r1, Register r2, int immediate) {
 		r1.setValue((short)(r2.getValue() - immediate));
-		return new Object[]{FunctionType.ADD, r1.getNumber(), -1};
+		result.set(FunctionType.ADD, r1.getNumber(), -1);
 	}
 	
-	public Object[] and(Register r1, Register r2, Register r3) {
+	public void and(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(r2.getValue() & r3.getValue()));
-		return new Object[]{FunctionType.ALU, r1.getNumber(), -1};
+		result.set(FunctionType.ALU, r1.getNumber(), -1);
 	}
 	
-	public Object[] andi(Register r1, Register r2, int immediate) {
+	public void andi(Register r1, Register r2, int immediate) {
 		r1.setValue((short)(r2.getValue() & immediate));
-		return new Object[]{FunctionType.ALU, r1.getNumber(), -1};
+		result.set(FunctionType.ALU, r1.getNumber(), -1);
 	}
 	
-	public Object[] or(Register r1, Register r2, Register r3) {
+	public void or(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(r2.getValue() | r3.getValue()));
-		return new Object[]{FunctionType.ALU, r1.getNumber(), -1};
+		result.set(FunctionType.ALU, r1.getNumber(), -1);
 	}
 	
-	public Object[] ori(Register r1, Register r2, int immediate) {
+	public void ori(Register r1, Register r2, int immediate) {
 		r1.setValue((short)(r2.getValue() | immediate));
-		return new Object[]{FunctionType.ALU, r1.getNumber(), -1};
+		result.set(FunctionType.ALU, r1.getNumber(), -1);
 	}
 	
-	public Object[] nand(Register r1, Register r2, Register r3) {
+	public void nand(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(~(r2.getValue() & r3.getValue())));
-		return new Object[]{FunctionType.ALU, r1.getNumber(), -1};
+		result.set(FunctionType.ALU, r1.getNumber(), -1);
 	}
 	
-	public Object[] nor(Register r1, Register r2, Register r3) {
+	public void nor(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(~(r2.getValue() | r3.getValue())));
-		return new Object[]{FunctionType.ALU, r1.getNumber(), -1};
+		result.set(FunctionType.ALU, r1.getNumber(), -1);
 	}
 	
 	
-	public Object[] mul(Register r1, Register r2, Register r3) {
+	public void mul(Register r1, Register r2, Register r3) {
 		r1.setValue((short)(r2.getValue() * r3.getValue()));
-		return new Object[]{FunctionType.MULTIPLY, r1.getNumber(), -1};
+		result.set(FunctionType.MULTIPLY, r1.getNumber(), -1);
 	}
 	
-	public Object[] muli(Register r1, Register r2, int immediate) {
+	public void muli(Register r1, Register r2, int immediate) {
 		r1.setValue((short)(r2.getValue() * immediate));
-		return new Object[]{FunctionType.MULTIPLY, r1.getNumber(), -1};
+		result.set(FunctionType.MULTIPLY, r1.getNumber(), -1);
 	}
 	
-	public Object[] div(Register r1, Register r2, Register r3) {
+	public void div(Register r1, Register r2, Register r3) {
 		if (r3.getValue() == 0)
 			throw new IllegalArgumentException("Can not divide by zero");
 		
 		r1.setValue((short)(r2.getValue() / r3.getValue()));
-		return new Object[]{FunctionType.DIVIDE, r1.getNumber(), -1};
+		result.set(FunctionType.DIVIDE, r1.getNumber(), -1);
 	}
 	
-	public Object[] divi(Register r1, Register r2, int immediate) {
+	public void divi(Register r1, Register r2, int immediate) {
 		if (immediate == 0)
 			throw new IllegalArgumentException("Can not divide by zero");
 		
 		r1.setValue((short)(r2.getValue() / immediate));
-		return new Object[]{FunctionType.DIVIDE, r1.getNumber(), -1};
+		result.set(FunctionType.DIVIDE, r1.getNumber(), -1);
 	}
 	
-	public Object[] mod(Register r1, Register r2, Register r3) {
+	public void mod(Register r1, Register r2, Register r3) {
 		if (r3.getValue() == 0)
 			throw new IllegalArgumentException(r2.getValue() + " % 0 is undefined");
 		
 		r1.setValue((short)(r2.getValue() % r3.getValue()));
-		return new Object[]{FunctionType.DIVIDE, r1.getNumber(), -1};
+		result.set(FunctionType.DIVIDE, r1.getNumber(), -1);
 	}
 	
-	public Object[] modi(Register r1, Register r2, int immediate) {
+	public void modi(Register r1, Register r2, int immediate) {
 		if (immediate == 0)
 			throw new IllegalArgumentException(r2.getValue() + " % 0 is undefined");
 		
 		r1.setValue((short)(r2.getValue() % immediate));
-		return new Object[]{FunctionType.DIVIDE, r1.getNumber(), -1};
+		result.set(FunctionType.DIVIDE, r1.getNumber(), -1);
 	}
 		
 	
-	public Object[] lw(Register r1, Register r2, int immediate) {
+	public void lw(Register r1, Register r2, int immediate) {
 		int effectiveAddress = r2.getValue() + immediate;
 		
 		if (!processor.getMemory().isWordAddress(effectiveAddress))
 			throw new IllegalArgumentException("Invalid word address (" + effectiveAddress + ")");
 		
-		int time1 = processor.getDataAccessTime();
-		r1.setValue(Helpers.toWord(processor.getDataCache(0).getData(effectiveAddress, 2)));
-		int time2 = processor.getDataAccessTime();
-		return new Object[]{FunctionType.LOAD, r1.getNumber(), effectiveAddress, time2 - time1};
+		if (processor.getStackDistance() != null)
+			processor.getStackDistance().access(effectiveAddress);
+		
+		access.clear();
+		access.setPc(processor.getRegisterFile().getPc() - 2);
+		r1.setValue(storage().readWord(effectiveAddress, access));
+		result.set(FunctionType.LOAD, r1.getNumber(), effectiveAddress, access.getCycles(), access.getLevel());
 	}
 	
-	public Object[] sw(Register r1, Register r2, int immediate) {
+	public void sw(Register r1, Register r2, int immediate) {
 		int effectiveAddress = r2.getValue() + immediate;
 		
 		if (!processor.getMemory().isWordAddress(effectiveAddress))
 			throw new IllegalArgumentException("Invalid word address (" + effectiveAddress + ")");
 		
-		int time1 = processor.getDataAccessTime();
-		processor.getDataCache(0).setData(effectiveAddress, Helpers.toBytes(r1.getValue()));
-		int time2 = processor.getDataAccessTime();
-		return new Object[]{FunctionType.STORE, -1, effectiveAddress, time2 - time1};
+		if (processor.getStackDistance() != null)
+			processor.getStackDistance().access(effectiveAddress);
+		
+		access.clear();
+		access.setPc(processor.getRegisterFile().getPc() - 2);
+		storage().writeWord(effectiveAddress, r1.getValue(), access);
+		result.set(FunctionType.STORE, -1, effectiveAddress, access.getCycles(), access.getLevel());
 	}
 	
 	
-	public Object[] beq(Register r1, Register r2, int immediate) {
+	public void beq(Register r1, Register r2, int immediate) {
 		if (r1.getValue() == r2.getValue())
 			processor.getRegisterFile().incrementPc(immediate);
 		
-		return new Object[]{FunctionType.BRANCH, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.BRANCH, -1, processor.getRegisterFile().getPc());
 	}
 	
-	public Object[] bne(Register r1, Register r2, int immediate) {
+	public void bne(Register r1, Register r2, int immediate) {
 		if (r1.getValue() != r2.getValue())
 			processor.getRegisterFile().incrementPc(immediate);
 		
-		return new Object[]{FunctionType.BRANCH, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.BRANCH, -1, processor.getRegisterFile().getPc());
 	}
 	
-	public Object[] bgt(Register r1, Register r2, int immediate) {
+	public void bgt(Register r1, Register r2, int immediate) {
 		if (r1.getValue() > r2.getValue())
 			processor.getRegisterFile().incrementPc(immediate);
 		
-		return new Object[]{FunctionType.BRANCH, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.BRANCH, -1, processor.getRegisterFile().getPc());
 	}
 	
-	public Object[] blt(Register r1, Register r2, int immediate) {
+	public void blt(Register r1, Register r2, int immediate) {
 		if (r1.getValue() < r2.getValue())
 			processor.getRegisterFile().incrementPc(immediate);
 		
-		return new Object[]{FunctionType.BRANCH, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.BRANCH, -1, processor.getRegisterFile().getPc());
 	}
 
-	public Object[] bge(Register r1, Register r2, int immediate) {
+	public void bge(Register r1, Register r2, int immediate) {
 		if (r1.getValue() >= r2.getValue())
 			processor.getRegisterFile().incrementPc(immediate);
 		
-		return new Object[]{FunctionType.BRANCH, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.BRANCH, -1, processor.getRegisterFile().getPc());
 	}
 	
-	public Object[] ble(Register r1, Register r2, int immediate) {
+	public void ble(Register r1, Register r2, int immediate) {
 		if (r1.getValue() <= r2.getValue())
 			processor.getRegisterFile().incrementPc(immediate);
 		
-		return new Object[]{FunctionType.BRANCH, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.BRANCH, -1, processor.getRegisterFile().getPc());
 	}
 	
 	
-	public Object[] jmp(Register r, int immediate) {
+	public void jmp(Register r, int immediate) {
 		processor.getRegisterFile().incrementPc(r.getValue() + immediate);
-		return new Object[]{FunctionType.JUMP, -1, processor.getRegisterFile().getPc()};
+		result.set(FunctionType.JUMP, -1, processor.getRegisterFile().getPc());
 	}
 	
-	public Object[] ret(Register r) {
+	public void ret(Register r) {
 		processor.getRegisterFile().setPc(r.getValue());
-		return new Object[]{FunctionType.JUMP, -1, (int)r.getValue()};
+		result.set(FunctionType.JUMP, -1, (int)r.getValue());
 	}
 	
-	public Object[] jalr(Register r1, Register r2) {
+	public void jalr(Register r1, Register r2) {
 		r1.setValue((short) (processor.getRegisterFile().getPc()));
 		processor.getRegisterFile().setPc(r2.getValue());
-		return new Object[]{FunctionType.JUMP_AND_LINK, r1.getNumber(), (int)r2.getValue()};
+		result.set(FunctionType.JUMP_AND_LINK, r1.getNumber(), (int)r2.getValue());
 	}
 
-	public static Method getMethod(String operation) {
-		Method[] methods = InstructionSet.class.getDeclaredMethods();
-		for (Method method : methods) {
-			if (method.getName().equals(operation))
-				return method;
+	public ExecutionResult execute(int word) {
+		switch (Instruction.opcodeOf(word)) {
+			case ADD : add(register(word, 0), register(word, 1), register(word, 2)); break;
+			case ADDI : addi(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case LUI : lui(register(word, 0), Instruction.immediateOf(word)); break;
+			case SUB : sub(register(word, 0), register(word, 1), register(word, 2)); break;
+			case SUBI : subi(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case AND : and(register(word, 0), register(word, 1), register(word, 2)); break;
+			case ANDI : andi(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case OR : or(register(word, 0), register(word, 1), register(word, 2)); break;
+			case ORI : ori(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case NAND : nand(register(word, 0), register(word, 1), register(word, 2)); break;
+			case NOR : nor(register(word, 0), register(word, 1), register(word, 2)); break;
+			case MUL : mul(register(word, 0), register(word, 1), register(word, 2)); break;
+			case MULI : muli(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case DIV : div(register(word, 0), register(word, 1), register(word, 2)); break;
+			case DIVI : divi(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case MOD : mod(register(word, 0), register(word, 1), register(word, 2)); break;
+			case MODI : modi(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case LW : lw(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case SW : sw(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case BEQ : beq(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case BNE : bne(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case BGT : bgt(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case BLT : blt(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case BGE : bge(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case BLE : ble(register(word, 0), register(word, 1), Instruction.immediateOf(word)); break;
+			case JMP : jmp(register(word, 0), Instruction.immediateOf(word)); break;
+			case RET : ret(register(word, 0)); break;
+			case JALR : jalr(register(word, 0), register(word, 1)); break;
+			default : throw new IllegalArgumentException(Instruction.opcodeOf(word).getMnemonic() + " is an invalid operation");
 		}
-		return null;
+		return result;
+	}
+	
+	public Runnable bind(int word) {
+		Register r1 = register(word, 0);
+		Register r2 = register(word, 1);
+		Register r3 = register(word, 2);
+		int immediate = Instruction.immediateOf(word);
+		switch (Instruction.opcodeOf(word)) {
+			case ADD : return () -> add(r1, r2, r3);
+			case ADDI : return () -> addi(r1, r2, immediate);
+			case LUI : return () -> lui(r1, immediate);
+			case SUB : return () -> sub(r1, r2, r3);
+			case SUBI : return () -> subi(r1, r2, immediate);
+			case AND : return () -> and(r1, r2, r3);
+			case ANDI : return () -> andi(r1, r2, immediate);
+			case OR : return () -> or(r1, r2, r3);
+			case ORI : return () -> ori(r1, r2, immediate);
+			case NAND : return () -> nand(r1, r2, r3);
+			case NOR : return () -> nor(r1, r2, r3);
+			case MUL : return () -> mul(r1, r2, r3);
+			case MULI : return () -> muli(r1, r2, immediate);
+			case DIV : return () -> div(r1, r2, r3);
+			case DIVI : return () -> divi(r1, r2, immediate);
+			case MOD : return () -> mod(r1, r2, r3);
+			case MODI : return () -> modi(r1, r2, immediate);
+			case LW : return () -> lw(r1, r2, immediate);
+			case SW : return () -> sw(r1, r2, immediate);
+			case BEQ : return () -> beq(r1, r2, immediate);
+			case BNE : return () -> bne(r1, r2, immediate);
+			case BGT : return () -> bgt(r1, r2, immediate);
+			case BLT : return () -> blt(r1, r2, immediate);
+			case BGE : return () -> bge(r1, r2, immediate);
+			case BLE : return () -> ble(r1, r2, immediate);
+			case JMP : return () -> jmp(r1, immediate);
+			case RET : return () -> ret(r1);
+			case JALR : return () -> jalr(r1, r2);
+			default : return () -> execute(word);
+		}
+	}
+	
+	// Functional execution reads and writes memory directly, bypassing the caches
+	public void setFunctional(boolean functional) {
+		this.functional = functional;
+	}
+	
+	private Addressable storage() {
+		return (functional)? processor.getMemory() : processor.getDataCache(0);
+	}
+	
+	public ExecutionResult getResult() {
+		return result;
+	}
+	
+	private Register register(int word, int operand) {
+		int number = Instruction.registerOf(word, operand);
+		return (number == -1)? null : processor.getRegisterFile().getRegister(number);
 	}
 	
 }
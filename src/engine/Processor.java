@@ -1,94 +1,359 @@
 package engine;
-import java.lang.reflect.Method;
 
 import engine.storage.DataCache;
 import engine.storage.InstructionCache;
 import engine.storage.Memory;
+import engine.types.AccessResult;
+import engine.types.ExecutionResult;
 import engine.types.Addressable;
 import engine.types.FunctionType;
 import engine.types.Instruction;
+import engine.types.Opcode;
+import engine.types.PrefetchPolicy;
+import engine.types.ReplacementPolicy;
 import engine.types.WritePolicy;
 
 public class Processor {
 	
+	// Blocks executed this many times are compiled to bytecode
+	private static final int COMPILE_THRESHOLD = 50;
+	
 	private RegisterFile registerFile;
 	private Memory memory;
 	private DataCache[] dataCache;
 	private InstructionCache instructionCache;
 	private UnitSet unitSet;
+	private InstructionSet instructionSet;
+	private BasicBlock[] blocks;
+	private BlockCompiler compiler;
+	private BlockRuntime runtime;
+	private boolean compiling;
+	private int[] profile;
+	private Trace trace;
+	private StackDistance stackDistance;
 	
 	public Processor(int[][] cacheConfig, int[][] unitsConfig) {
 		configureStorage(cacheConfig);
 		unitSet = new UnitSet(unitsConfig);
+		unitSet.setCaches(missRegisters());
 		registerFile = new RegisterFile(memory.getInstructionsStartAddress());
+		instructionSet = new InstructionSet(this);
+		compiler = new BlockCompiler();
+		runtime = new BlockRuntime(this);
+		compiling = true;
 	}
 	
+	// Caches take an optional column with their replacement policy after their other settings, FIFO when missing. Data
+	// caches may then take their prefetcher, none when missing, and their number of miss registers, where none (0 or
+	// missing) leaves outstanding misses unlimited. Every level is built before any is replaced, so that an invalid
+	// configuration leaves the current storage as it was
 	public void configureStorage(int[][] config) {
 		if (config.length < 3)
 			throw new IllegalArgumentException("Invalid configuration");
 		
-		memory = new Memory(config[0][0], config[0][1], config[0][2], config[0][3]);
-		instructionCache = new InstructionCache(config[1][0], config[1][1], config[1][2], config[1][3], memory);
+		Memory memory = new Memory(config[0][0], config[0][1], config[0][2], config[0][3]);
+		InstructionCache instructionCache = new InstructionCache(config[1][0], config[1][1], config[1][2], config[1][3], memory);
+		if (config[1].length > 4)
+			instructionCache.setReplacementPolicy(replacementPolicyOf(config[1][4]));
 		Addressable prev = memory;
-		dataCache = new DataCache[config.length - 2];
+		DataCache[] dataCache = new DataCache[config.length - 2];
 		for (int i = config.length - 1; i >= 2; i--) {
 			dataCache[i - 2] = new DataCache(config[i][0], config[i][1], config[i][2], config[i][3]);
 			dataCache[i - 2].setWritePolicies(WritePolicy.values()[config[i][4]], WritePolicy.values()[config[i][5]]);
+			if (config[i].length > 6)
+				dataCache[i - 2].setReplacementPolicy(replacementPolicyOf(config[i][6]));
+			if (config[i].length > 7) {
+				if (config[i][7] < 0 || config[i][7] >= PrefetchPolicy.values().length)
+					throw new IllegalArgumentException("Invalid prefetcher");
+				dataCache[i - 2].setPrefetchPolicy(PrefetchPolicy.values()[config[i][7]]);
+			}
+			if (config[i].length > 8)
+				dataCache[i - 2].setMissRegisters(config[i][8]);
 			dataCache[i - 2].setNextCacheLevel(prev);
 			prev = dataCache[i - 2];
 		}
+		
+		this.memory = memory;
+		this.instructionCache = instructionCache;
+		this.dataCache = dataCache;
+		blocks = null;
+		if (unitSet != null)
+			unitSet.setCaches(missRegisters());
+	}
+	
+	// Line size and miss registers of each data cache level, for the schedule to overlap misses by
+	private int[][] missRegisters() {
+		int[][] caches = new int[dataCache.length][];
+		for (int i = 0; i < caches.length; i++)
+			caches[i] = new int[]{dataCache[i].getLineSize(), dataCache[i].getMissRegisters()};
+		return caches;
 	}
 			
+	private static ReplacementPolicy replacementPolicyOf(int ordinal) {
+		if (ordinal < 0 || ordinal >= ReplacementPolicy.values().length)
+			throw new IllegalArgumentException("Invalid replacement policy");
+		
+		return ReplacementPolicy.values()[ordinal];
+	}
+	
 	public boolean execute(boolean stepped) throws IllegalArgumentException {
-		InstructionSet instructionSet = new InstructionSet(this);
-		Instruction instruction;
-		int oldPc;
-		do {
-			oldPc = registerFile.getPc();
-			instruction = instructionCache.getInstruction(oldPc).clone();
+		return execute((stepped)? 1 : Long.MAX_VALUE);
+	}
 	
-			registerFile.incrementPc(2);
-			
-			Method method = InstructionSet.getMethod(instruction.getOperation());
-			Object[] data;
+	// Simulates at most the given number of instructions in detail, returning whether the program ended
+	public boolean execute(long instructions) throws IllegalArgumentException {
+		BasicBlock block;
+		int oldPc;
+		int word;
+		long executed = 0;
+		while (executed < instructions) {
+			// Addresses outside the program, such as the one past its end, have no block and nothing to run
+			block = getBlock(registerFile.getPc());
+			if (block == null)
+				throw new IllegalArgumentException("Invalid instruction address (" + registerFile.getPc() + ")");
 			
-			try {
-				 data = (Object[])method.invoke(instructionSet, instruction.getOperands());
-			} catch (Exception ex) {
-				registerFile.setPc(oldPc);
-				throw new IllegalArgumentException(ex.getCause().getMessage());
+			// Compiled blocks don't report to the trace, so they are left aside while recording
+			if (trace == null && instructions - executed >= block.size() && compile(block)) {
+				registerFile.setPc(block.getCompiled().execute(runtime));
+				executed += block.size();
+				if (registerFile.getPc() > memory.getLastInstructionAddress()) {
+					finish();
+					return true;
+				}
+				continue;
 			}
 			
-			if (!memory.isInstructionAddress(registerFile.getPc())) {
-				String message = "Invalid instruction address (" + registerFile.getPc()  + ")";
-				registerFile.setPc(oldPc);
-				throw new IllegalArgumentException(message);
+			int size = (int)Math.min(block.size(), instructions - executed);
+			for (int i = 0; i < size; i++) {
+				oldPc = registerFile.getPc();
+				word = instructionCache.getInstruction(oldPc);
+				
+				registerFile.incrementPc(2);
+				
+				try {
+					block.execute(i);
+				} catch (IllegalArgumentException ex) {
+					registerFile.setPc(oldPc);
+					throw ex;
+				}
+				
+				checkPc(oldPc);
+				unitSet.addExecutedInstruction(oldPc, word, instructionSet.getResult());
+				if (trace != null)
+					trace.record(oldPc, word, instructionSet.getResult().getEffectiveAddress());
+				executed++;
+				
+				if (registerFile.getPc() > memory.getLastInstructionAddress()) {
+					finish();
+					return true;
+				}
 			}
+		}
+		
+		return false;
+	}
+	
+	// Runs functionally, with no cache or schedule bookkeeping, until the marker pc is reached or the given number
+	// of instructions is executed. The caches are then warmed with the accesses of the last warmUp instructions and
+	// all statistics are reset, so that detailed execution measures only the region that follows
+	public boolean fastForward(int marker, long instructions, int warmUp) throws IllegalArgumentException {
+		if (warmUp < 0)
+			throw new IllegalArgumentException("Invalid warm-up length (" + warmUp + ")");
+		
+		for (DataCache cache : dataCache)
+			cache.flush();
+		
+		int[] fetches = new int[warmUp];
+		int[] accesses = new int[warmUp];
+		boolean[] stores = new boolean[warmUp];
+		long executed = 0;
+		boolean ended = false;
+		instructionSet.setFunctional(true);
+		try {
+			run:
+			while (executed < instructions) {
+				BasicBlock block = getBlock(registerFile.getPc());
+				if (block == null)
+					throw new IllegalArgumentException("Invalid instruction address (" + registerFile.getPc() + ")");
+				
+				int leader = (block.getAddress() - memory.getInstructionsStartAddress()) / 2;
+				for (int i = 0; i < block.size() && executed < instructions; i++) {
+					int oldPc = registerFile.getPc();
+					if (oldPc == marker)
+						break run;
+					
+					registerFile.incrementPc(2);
+					try {
+						block.execute(i);
+					} catch (IllegalArgumentException ex) {
+						registerFile.setPc(oldPc);
+						throw ex;
+					}
+					checkPc(oldPc);
+					
+					if (warmUp > 0) {
+						int slot = (int)(executed % warmUp);
+						Opcode opcode = Instruction.opcodeOf(block.getWord(i));
+						fetches[slot] = oldPc;
+						accesses[slot] = (opcode == Opcode.LW || opcode == Opcode.SW)? instructionSet.getResult().getEffectiveAddress() : -1;
+						stores[slot] = opcode == Opcode.SW;
+					}
+					if (trace != null)
+						trace.record(oldPc, block.getWord(i), instructionSet.getResult().getEffectiveAddress());
+					executed++;
+					if (profile != null)
+						profile[leader]++;
+					
+					if (registerFile.getPc() > memory.getLastInstructionAddress()) {
+						ended = true;
+						break run;
+					}
+				}
+			}
+		} finally {
+			instructionSet.setFunctional(false);
+		}
+		
+		// Memory already holds the final values, so replayed stores write them back unchanged
+		AccessResult access = new AccessResult();
+		long first = Math.max(0, executed - warmUp);
+		for (long i = first; i < executed; i++) {
+			int slot = (int)(i % warmUp);
+			instructionCache.getInstruction(fetches[slot]);
+			access.clear();
+			access.setPc(fetches[slot]);
+			if (stores[slot])
+				dataCache[0].writeWord(accesses[slot], memory.getWord(accesses[slot]), access);
+			else if (accesses[slot] != -1)
+				dataCache[0].readWord(accesses[slot], access);
+		}
+		
+		resetStatistics();
+		if (ended)
+			finish();
+		
+		return ended;
+	}
+	
+	// Fast-forwarding adds every executed instruction to the count of the block it ran in, indexed by the block's first instruction
+	public void setProfile(int[] profile) {
+		if (profile != null && profile.length < memory.getInstructionCount())
+			throw new IllegalArgumentException("The profile must have a count for each instruction");
+		
+		this.profile = profile;
+	}
+	
+	// Records every instruction executed from now on, in detail or fast-forwarded, until the program ends or stopTrace
+	public void startTrace(String file) {
+		stopTrace();
+		trace = Trace.create(file, memory);
+	}
+	
+	public void stopTrace() {
+		if (trace != null)
+			trace.close(registerFile.getPc());
+		trace = null;
+	}
+	
+	// Feeds a recorded trace through this processor's caches and units without executing it. Replayed stores write zeros,
+	// so the data left in memory and the caches afterwards is meaningless: only the statistics and the schedule are kept
+	public long replayTrace(String file) {
+		Trace replayed = Trace.open(file);
+		ExecutionResult result = new ExecutionResult();
+		AccessResult access = new AccessResult();
+		long instructions = 0;
+		while (replayed.next()) {
+			int word = replayed.getWord();
+			Opcode opcode = Instruction.opcodeOf(word);
+			FunctionType function = opcode.getFunction();
+			instructionCache.getInstruction(replayed.getPc());
 			
-			instruction.setFunction((FunctionType)data[0]);
-			instruction.setDestination((Integer)data[1]);
-			instruction.setEffectiveAddress((Integer)data[2]);
-			
-			if (data.length == 4)
-				instruction.setExecutionTime((Integer)data[3]);
-			
-			unitSet.addExecutedInstruction(instruction);
+			int effectiveAddress = -1;
+			int executionTime = -1;
+			int level = 0;
+			if (opcode == Opcode.LW || opcode == Opcode.SW) {
+				effectiveAddress = replayed.getEffectiveAddress();
+				if (stackDistance != null)
+					stackDistance.access(effectiveAddress);
+				
+				// Stored values don't affect the timing, so the replay stores zeros
+				access.clear();
+				access.setPc(replayed.getPc());
+				if (opcode == Opcode.LW)
+					dataCache[0].readWord(effectiveAddress, access);
+				else
+					dataCache[0].writeWord(effectiveAddress, (short)0, access);
+				executionTime = access.getCycles();
+				level = access.getLevel();
+			} else if (function == FunctionType.BRANCH || function == FunctionType.JUMP || function == FunctionType.JUMP_AND_LINK)
+				effectiveAddress = replayed.getNextPc();
 			
-			if (registerFile.getPc() > memory.getLastInstructionAddress())
-				return true;
+			result.set(function, Instruction.destinationOf(word), effectiveAddress, executionTime, level);
+			unitSet.addExecutedInstruction(replayed.getPc(), word, result);
+			instructions++;
+		}
+		unitSet.flush();
+		return instructions;
+	}
+	
+	// Every data address loaded or stored from now on, in any mode, is also fed to the analyzer
+	public void setStackDistance(StackDistance stackDistance) {
+		this.stackDistance = stackDistance;
+	}
+	
+	public StackDistance getStackDistance() {
+		return stackDistance;
+	}
+	
+	private void finish() {
+		unitSet.flush();
+		stopTrace();
+	}
+	
+	private void checkPc(int oldPc) {
+		if (!memory.isInstructionAddress(registerFile.getPc())) {
+			String message = "Invalid instruction address (" + registerFile.getPc()  + ")";
+			registerFile.setPc(oldPc);
+			throw new IllegalArgumentException(message);
+		}
+	}
+	
+	private boolean compile(BasicBlock block) {
+		if (!compiling)
+			return false;
 		
-		} while (!stepped);
+		if (block.getCompiled() == null && block.countExecution() == COMPILE_THRESHOLD)
+			block.setCompiled(compiler.compile(block));
 		
-		return false;
+		return block.getCompiled() != null;
 	}
+	
+	private BasicBlock getBlock(int address) {
+		int index = (address - memory.getInstructionsStartAddress()) / 2;
+		if (address % 2 != 0 || index < 0 || index >= memory.getInstructionCount())
+			return null;
 		
-	public int getDataAccessTime() {
-		int accessTime = 0;
-		for (int i = 0; i < dataCache.length; i++)
-			accessTime += dataCache[i].getAccesses() * dataCache[i].getAccessTime();
-
-		accessTime += memory.getDataAccesses() * memory.getAccessTime();
-		return accessTime;
+		if (blocks == null)
+			blocks = new BasicBlock[memory.getInstructionCount()];
+		
+		if (blocks[index] == null) {
+			int end = index;
+			while (end < memory.getInstructionCount()) {
+				FunctionType function = Instruction.opcodeOf(memory.getInstructionWord(address + (end - index) * 2)).getFunction();
+				end++;
+				if (function == FunctionType.BRANCH || function == FunctionType.JUMP || function == FunctionType.JUMP_AND_LINK)
+					break;
+			}
+			
+			int[] words = new int[end - index];
+			Runnable[] handlers = new Runnable[words.length];
+			for (int i = 0; i < words.length; i++) {
+				words[i] = memory.getInstructionWord(address + i * 2);
+				handlers[i] = instructionSet.bind(words[i]);
+			}
+			blocks[index] = new BasicBlock(address, words, handlers);
+		}
+		return blocks[index];
 	}
 	
 	public RegisterFile getRegisterFile() {
@@ -113,10 +378,64 @@ public class Processor {
 		return unitSet;
 	}
 	
+	public BlockCompiler getBlockCompiler() {
+		return compiler;
+	}
+	
+	// Without compiling, every block runs through its bound handlers. Blocks already compiled are kept for later
+	public void setCompiling(boolean compiling) {
+		this.compiling = compiling;
+	}
+	
+	// Data cache levels are saved from the last one up, so that a level that can't take its saved lines passes the dirty
+	// ones down to levels already restored
+	public void saveSnapshot(String file) {
+		Snapshot snapshot = Snapshot.create(file);
+		try {
+			memory.save(snapshot);
+			registerFile.save(snapshot);
+			instructionCache.save(snapshot);
+			snapshot.writeInt(dataCache.length);
+			for (int i = dataCache.length - 1; i >= 0; i--)
+				dataCache[i].save(snapshot);
+			unitSet.save(snapshot);
+		} finally {
+			snapshot.close();
+		}
+	}
+	
+	// Restores a snapshot taken with the same memory configuration. Caches and units may differ from the saved ones,
+	// in which case they start empty with the saved data written back
+	public void restoreSnapshot(String file) {
+		Snapshot snapshot = Snapshot.open(file);
+		memory.restore(snapshot);
+		registerFile.restore(snapshot);
+		instructionCache.restore(snapshot);
+		blocks = null;
+		
+		int levels = snapshot.readInt();
+		for (int i = levels; i < dataCache.length; i++)
+			dataCache[i].clear();
+		for (int i = levels - 1; i >= 0; i--)
+			DataCache.restore(snapshot, (i < dataCache.length)? dataCache[i] : memory);
+		unitSet.restore(snapshot);
+	}
+	
+	// Starts a new measured region, keeping the architectural and cache state
+	public void resetStatistics() {
+		unitSet.clear();
+		memory.resetStatistics();
+		instructionCache.resetStatistics();
+		for (DataCache cache : dataCache)
+			cache.resetStatistics();
+	}
+	
 	public void clear() {
+		stopTrace();
 		registerFile.clear(memory.getInstructionsStartAddress());
 		unitSet.clear();
 		memory.clear();
+		blocks = null;
 		instructionCache.clear();
 		for (DataCache cache : dataCache)
 			cache.clear();
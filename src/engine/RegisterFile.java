@@ -24,6 +24,10 @@ public class RegisterFile {
 		return null;
 	}
 	
+	public Register getRegister(int number) {
+		return registers.get(number);
+	}
+	
 	public Object[] displayRegisters(boolean hex) {
 		String[] headers = {"Register", "Word"}; 
 		String[][] data = new String[registers.size()][2];
@@ -47,6 +51,18 @@ public class RegisterFile {
 		pc += value;
 	}
 	
+	public void save(Snapshot snapshot) {
+		snapshot.writeInt(pc);
+		for (Register register : registers)
+			snapshot.writeInt(register.getValue());
+	}
+	
+	public void restore(Snapshot snapshot) {
+		pc = snapshot.readInt();
+		for (Register register : registers)
+			register.setValue((short)snapshot.readInt());
+	}
+	
 	public void clear(int instructionsStartAddress) {
 		for (Register register : registers)
 			register.clear();
@@ -0,0 +1,378 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+public class Sampler {
+	
+	// Basic block vectors are randomly projected to this many dimensions before clustering
+	private static final int DIMENSIONS = 15;
+	private static final int RESTARTS = 5;
+	private static final int ITERATIONS = 100;
+	// Two-sided 95% bound of a normal estimate
+	private static final double Z = 1.96;
+	
+	private int intervalLength;
+	private int clusters;
+	private int samples;
+	private int warmUp;
+	private Random random;
+	
+	// Per interval: instructions, projected block vector, cluster, and the measurements of the simulated ones
+	private ArrayList<Integer> lengths;
+	private ArrayList<double[]> vectors;
+	private int[] assignments;
+	private int[][] chosen;
+	private double[] cyclesPerInstruction;
+	private double[] hitsPerInstruction;
+	private double[] accessesPerInstruction;
+	private long instructions;
+	private long simulated;
+	private double[] ipc;
+	private double[] hitRatio;
+	
+	public Sampler(int intervalLength, int clusters, int samples, int warmUp, long seed) {
+		if (intervalLength < 1)
+			throw new IllegalArgumentException("Invalid interval length (" + intervalLength + ")");
+		
+		if (clusters < 1)
+			throw new IllegalArgumentException("Invalid number of clusters (" + clusters + ")");
+		
+		if (samples < 1)
+			throw new IllegalArgumentException("Invalid number of samples per cluster (" + samples + ")");
+		
+		if (warmUp < 0)
+			throw new IllegalArgumentException("Invalid warm-up length (" + warmUp + ")");
+		
+		this.intervalLength = intervalLength;
+		this.clusters = clusters;
+		this.samples = samples;
+		this.warmUp = warmUp;
+		this.random = new Random(seed);
+	}
+	
+	// Profiles the whole program functionally, then simulates in detail only the intervals picked from each cluster
+	public void run(int[][] cacheConfig, int[][] unitsConfig, String data, String program) {
+		profile(cacheConfig, unitsConfig, data, program);
+		cluster();
+		choose();
+		simulate(cacheConfig, unitsConfig, data, program);
+		estimate();
+	}
+	
+	private void profile(int[][] cacheConfig, int[][] unitsConfig, String data, String program) {
+		Processor processor = new Processor(cacheConfig, unitsConfig);
+		Assembler.assemble(data, program, processor);
+		int[] counts = new int[processor.getMemory().getInstructionCount()];
+		double[][] projection = new double[counts.length][DIMENSIONS];
+		for (double[] row : projection)
+			for (int j = 0; j < DIMENSIONS; j++)
+				row[j] = random.nextDouble() * 2 - 1;
+		
+		processor.setProfile(counts);
+		lengths = new ArrayList<Integer>();
+		vectors = new ArrayList<double[]>();
+		instructions = 0;
+		boolean ended = false;
+		while (!ended) {
+			ended = processor.fastForward(-1, intervalLength, 0);
+			int length = 0;
+			for (int count : counts)
+				length += count;
+			
+			if (length == 0)
+				break;
+			
+			double[] vector = new double[DIMENSIONS];
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0)
+					continue;
+				double share = counts[i] * 1.0 / length;
+				for (int j = 0; j < DIMENSIONS; j++)
+					vector[j] += share * projection[i][j];
+			}
+			lengths.add(length);
+			vectors.add(vector);
+			instructions += length;
+			Arrays.fill(counts, 0);
+		}
+	}
+	
+	// k-means with k-means++ seeding, keeping the restart with the smallest squared error
+	private void cluster() {
+		int k = Math.min(clusters, vectors.size());
+		double best = Double.MAX_VALUE;
+		for (int restart = 0; restart < RESTARTS; restart++) {
+			double[][] centroids = seed(k);
+			int[] assigned = new int[vectors.size()];
+			double error = 0;
+			for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+				boolean changed = iteration == 0;
+				error = 0;
+				for (int i = 0; i < vectors.size(); i++) {
+					int nearest = nearest(vectors.get(i), centroids);
+					changed |= nearest != assigned[i];
+					assigned[i] = nearest;
+					error += distance(vectors.get(i), centroids[nearest]);
+				}
+				if (!changed)
+					break;
+				
+				centroids = new double[k][DIMENSIONS];
+				int[] sizes = new int[k];
+				for (int i = 0; i < vectors.size(); i++) {
+					sizes[assigned[i]]++;
+					for (int j = 0; j < DIMENSIONS; j++)
+						centroids[assigned[i]][j] += vectors.get(i)[j];
+				}
+				for (int c = 0; c < k; c++)
+					for (int j = 0; j < DIMENSIONS; j++)
+						centroids[c][j] = (sizes[c] == 0)? vectors.get(random.nextInt(vectors.size()))[j] : centroids[c][j] / sizes[c];
+			}
+			if (error < best) {
+				best = error;
+				assignments = assigned;
+			}
+		}
+	}
+	
+	private double[][] seed(int k) {
+		double[][] centroids = new double[k][];
+		double[] distances = new double[vectors.size()];
+		centroids[0] = vectors.get(random.nextInt(vectors.size())).clone();
+		for (int c = 1; c < k; c++) {
+			double total = 0;
+			for (int i = 0; i < vectors.size(); i++) {
+				distances[i] = distance(vectors.get(i), centroids[nearest(vectors.get(i), Arrays.copyOf(centroids, c))]);
+				total += distances[i];
+			}
+			int next = 0;
+			for (double target = random.nextDouble() * total; next < distances.length - 1 && target >= distances[next]; next++)
+				target -= distances[next];
+			centroids[c] = vectors.get(next).clone();
+		}
+		return centroids;
+	}
+	
+	private static int nearest(double[] vector, double[][] centroids) {
+		int nearest = 0;
+		for (int c = 1; c < centroids.length; c++)
+			if (distance(vector, centroids[c]) < distance(vector, centroids[nearest]))
+				nearest = c;
+		
+		return nearest;
+	}
+	
+	private static double distance(double[] a, double[] b) {
+		double distance = 0;
+		for (int j = 0; j < a.length; j++)
+			distance += (a[j] - b[j]) * (a[j] - b[j]);
+		
+		return distance;
+	}
+	
+	// Each cluster is represented by the interval closest to its centroid, plus random members to estimate its spread
+	private void choose() {
+		int k = 0;
+		for (int assigned : assignments)
+			k = Math.max(k, assigned + 1);
+		
+		chosen = new int[k][];
+		for (int c = 0; c < k; c++) {
+			ArrayList<Integer> members = new ArrayList<Integer>();
+			double[] centroid = new double[DIMENSIONS];
+			for (int i = 0; i < assignments.length; i++) {
+				if (assignments[i] != c)
+					continue;
+				members.add(i);
+				for (int j = 0; j < DIMENSIONS; j++)
+					centroid[j] += vectors.get(i)[j];
+			}
+			if (members.isEmpty()) {
+				chosen[c] = new int[0];
+				continue;
+			}
+			
+			for (int j = 0; j < DIMENSIONS; j++)
+				centroid[j] /= members.size();
+			
+			int closest = 0;
+			for (int m = 1; m < members.size(); m++)
+				if (distance(vectors.get(members.get(m)), centroid) < distance(vectors.get(members.get(closest)), centroid))
+					closest = m;
+			
+			chosen[c] = new int[Math.min(samples, members.size())];
+			chosen[c][0] = members.remove(closest);
+			for (int s = 1; s < chosen[c].length; s++)
+				chosen[c][s] = members.remove(random.nextInt(members.size()));
+			Arrays.sort(chosen[c]);
+		}
+	}
+	
+	// Walks the program once, fast-forwarding between the chosen intervals and simulating each of them in detail
+	private void simulate(int[][] cacheConfig, int[][] unitsConfig, String data, String program) {
+		boolean[] picked = new boolean[lengths.size()];
+		for (int[] intervals : chosen)
+			for (int interval : intervals)
+				picked[interval] = true;
+		
+		Processor processor = new Processor(cacheConfig, unitsConfig);
+		Assembler.assemble(data, program, processor);
+		processor.getUnitSet().setStreaming(true, null);
+		cyclesPerInstruction = new double[lengths.size()];
+		hitsPerInstruction = new double[lengths.size()];
+		accessesPerInstruction = new double[lengths.size()];
+		simulated = 0;
+		long position = 0;
+		long start = 0;
+		for (int interval = 0; interval < lengths.size(); interval++) {
+			if (!picked[interval]) {
+				start += lengths.get(interval);
+				continue;
+			}
+			
+			// Short gaps are simulated in detail, which warms the caches exactly
+			if (start - position <= warmUp) {
+				processor.execute(start - position);
+				processor.resetStatistics();
+			} else
+				processor.fastForward(-1, start - position, warmUp);
+			
+			int length = lengths.get(interval);
+			processor.execute((long)length);
+			cyclesPerInstruction[interval] = processor.getUnitSet().getCycles() * 1.0 / length;
+			hitsPerInstruction[interval] = processor.getDataCache(0).getHits() * 1.0 / length;
+			accessesPerInstruction[interval] = processor.getDataCache(0).getAccesses() * 1.0 / length;
+			simulated += length;
+			start += length;
+			position = start;
+		}
+	}
+	
+	// Clusters are the strata of a stratified sample, weighted by the instructions they hold
+	private void estimate() {
+		double[] weights = new double[chosen.length];
+		for (int i = 0; i < assignments.length; i++)
+			weights[assignments[i]] += lengths.get(i) * 1.0 / instructions;
+		
+		double[] cpi = stratify(cyclesPerInstruction, weights, null, 0);
+		ipc = new double[]{1 / cpi[0], cpi[1] / (cpi[0] * cpi[0])};
+		
+		double[] accesses = stratify(accessesPerInstruction, weights, null, 0);
+		double[] hits = stratify(hitsPerInstruction, weights, null, 0);
+		if (accesses[0] == 0)
+			hitRatio = new double[]{0, 0};
+		else {
+			double ratio = hits[0] / accesses[0];
+			hitRatio = new double[]{ratio, stratify(hitsPerInstruction, weights, accessesPerInstruction, ratio)[1] / accesses[0]};
+		}
+	}
+	
+	// Returns the stratified mean of the sampled values and its error bound. With a ratio, the residuals
+	// value - ratio * other are used instead, giving the bound of a ratio estimate
+	private double[] stratify(double[] values, double[] weights, double[] other, double ratio) {
+		double mean = 0;
+		double[] variances = new double[chosen.length];
+		double pooled = 0;
+		int pooledSamples = 0;
+		for (int c = 0; c < chosen.length; c++) {
+			if (chosen[c].length == 0)
+				continue;
+			
+			double stratumMean = 0;
+			double residualMean = 0;
+			for (int interval : chosen[c]) {
+				stratumMean += values[interval] / chosen[c].length;
+				residualMean += residual(values, other, ratio, interval) / chosen[c].length;
+			}
+			mean += weights[c] * stratumMean;
+			
+			if (chosen[c].length < 2) {
+				variances[c] = -1;
+				continue;
+			}
+			for (int interval : chosen[c])
+				variances[c] += Math.pow(residual(values, other, ratio, interval) - residualMean, 2) / (chosen[c].length - 1);
+			pooled += variances[c] * (chosen[c].length - 1);
+			pooledSamples += chosen[c].length - 1;
+		}
+		
+		// Strata with a single sample borrow the variance pooled over the others
+		double variance = 0;
+		for (int c = 0; c < chosen.length; c++) {
+			if (chosen[c].length == 0)
+				continue;
+			
+			int size = 0;
+			for (int assigned : assignments)
+				if (assigned == c)
+					size++;
+			
+			double stratumVariance = (variances[c] != -1)? variances[c] : (pooledSamples == 0)? 0 : pooled / pooledSamples;
+			variance += weights[c] * weights[c] * (1 - chosen[c].length * 1.0 / size) * stratumVariance / chosen[c].length;
+		}
+		return new double[]{mean, Z * Math.sqrt(variance)};
+	}
+	
+	private static double residual(double[] values, double[] other, double ratio, int interval) {
+		return (other == null)? values[interval] : values[interval] - ratio * other[interval];
+	}
+	
+	public Object[] displayEstimates() {
+		String[] headers = {"Cluster", "Intervals", "Weight", "Simulated", "CPI", "Hit ratio"};
+		String[][] data = new String[chosen.length][6];
+		for (int c = 0; c < chosen.length; c++) {
+			int size = 0;
+			long length = 0;
+			for (int i = 0; i < assignments.length; i++)
+				if (assignments[i] == c) {
+					size++;
+					length += lengths.get(i);
+				}
+			
+			double cycles = 0, hits = 0, accesses = 0;
+			for (int interval : chosen[c]) {
+				cycles += cyclesPerInstruction[interval] / chosen[c].length;
+				hits += hitsPerInstruction[interval];
+				accesses += accessesPerInstruction[interval];
+			}
+			data[c][0] = c + "";
+			data[c][1] = size + "";
+			data[c][2] = String.format("%.2f", length * 100.0 / instructions) + "%";
+			data[c][3] = Arrays.toString(chosen[c]);
+			data[c][4] = String.format("%.2f", cycles);
+			data[c][5] = String.format("%.2f", (accesses == 0)? 0 : hits * 100 / accesses) + "%";
+		}
+		String data2 = String.format("Executed : %d Instructions\nIntervals: %d of %d Instructions\n", instructions, lengths.size(), intervalLength);
+		data2 += String.format("Simulated: %d Instructions (%.2f%%)\n", simulated, simulated * 100.0 / instructions);
+		data2 += String.format("IPC      : %.2f +/- %.2f\n", ipc[0], ipc[1]);
+		data2 += String.format("Hit ratio: %.2f +/- %.2f", hitRatio[0] * 100, hitRatio[1] * 100) + "%";
+		return new Object[]{data, headers, data2};
+	}
+	
+	public double getIpc() {
+		return ipc[0];
+	}
+	
+	public double getIpcBound() {
+		return ipc[1];
+	}
+	
+	public double getHitRatio() {
+		return hitRatio[0];
+	}
+	
+	public double getHitRatioBound() {
+		return hitRatio[1];
+	}
+	
+	public long getInstructions() {
+		return instructions;
+	}
+	
+	public long getSimulatedInstructions() {
+		return simulated;
+	}
+	
+}
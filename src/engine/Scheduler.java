@@ -0,0 +1,441 @@
+package engine;
+
+import java.util.Arrays;
+
+import engine.types.FunctionType;
+
+public class Scheduler {
+	
+	private int[][] configuration;
+	private int[][] caches;
+	
+	private int instructions;
+	private int issued;
+	private int executed;
+	private int written;
+	private int committed;
+	private boolean reset;
+	
+	// Commit cycles of the instructions still occupying the ROB and each function's reservation stations
+	private CycleQueue rob;
+	private CycleQueue[] stations;
+	
+	// Last instruction writing each register and last store to each effective address
+	private int[] registerWriters;
+	private int[] registerWrites;
+	private StoreTable stores;
+	
+	// Write cycles already taken on the CDB, from cdbBase onwards
+	private boolean[] cdb;
+	private int cdbBase;
+	
+	// Outstanding misses of each data cache level, null for levels without miss registers and altogether when no
+	// level has any, loads then taking their whole cache time wherever they start
+	private MissRegisters[] missRegisters;
+	
+	public Scheduler(int[][] configuration) {
+		this(configuration, new int[0][]);
+	}
+	
+	// Caches give the line size and miss registers of each data cache level
+	public Scheduler(int[][] configuration, int[][] caches) {
+		this.configuration = configuration;
+		this.caches = caches;
+		clear();
+	}
+	
+	// Loads and stores give the data cache level that served them, 0 for a first level hit
+	public void schedule(FunctionType function, int destination, int source1, int source2, int effectiveAddress, int executionTime, int level, boolean mispredicted) {
+		int index = function.ordinal();
+		boolean constrained = index < configuration.length - 1;
+		
+		if (instructions == 0)
+			issued = 1;
+		else if (reset)
+			issued = committed + 1;
+		else {
+			int cycle = issued + 1;
+			int issue1 = cycle;
+			int issue2 = cycle;
+			rob.release(cycle);
+			if (rob.size() >= configuration[0][0])
+				issue1 = rob.peek() + 1;
+			
+			if (constrained) {
+				stations[index].release(cycle);
+				if (stations[index].size() >= configuration[index + 1][0] * configuration[index + 1][1])
+					issue2 = stations[index].peek();
+			}
+			issued = Math.max(issue1, issue2);
+		}
+		
+		int dependancy = -1;
+		int dependancyWrite = 0;
+		if (source1 != -1 && registerWriters[source1] > dependancy) {
+			dependancy = registerWriters[source1];
+			dependancyWrite = registerWrites[source1];
+		}
+		if (source2 != -1 && registerWriters[source2] > dependancy) {
+			dependancy = registerWriters[source2];
+			dependancyWrite = registerWrites[source2];
+		}
+		if (function == FunctionType.LOAD) {
+			int slot = stores.find(effectiveAddress);
+			if (slot != -1 && stores.indices[slot] > dependancy) {
+				dependancy = stores.indices[slot];
+				dependancyWrite = stores.writes[slot];
+			}
+		}
+		
+		int start = (dependancy == -1)? issued : Math.max(dependancyWrite, issued);
+		if (function == FunctionType.LOAD && missRegisters != null)
+			executed = load(effectiveAddress, level, start, executionTime);
+		else
+			executed = start + executionTime;
+		written = reserveCdb(executed + 1);
+		committed = Math.max(committed, written) + 1;
+		
+		rob.add(committed);
+		if (constrained)
+			stations[index].add(committed);
+		
+		if (function == FunctionType.STORE)
+			stores.put(effectiveAddress, instructions, written);
+		else if (function != FunctionType.BRANCH && function != FunctionType.JUMP) {
+			registerWriters[destination] = instructions;
+			registerWrites[destination] = written;
+		}
+		
+		reset = mispredicted;
+		instructions++;
+	}
+	
+	// A load missing a level takes one of its registers until the load is done, starting once one is free. A load
+	// served by a level still filling its line in a register merges with that miss, done no sooner than the fill
+	private int load(int address, int level, int start, int executionTime) {
+		int missed = Math.min(level, missRegisters.length);
+		for (int i = 0; i < missed; i++)
+			if (missRegisters[i] != null)
+				start = missRegisters[i].free(start);
+		
+		int done = start + executionTime;
+		if (missed < missRegisters.length && missRegisters[missed] != null)
+			done = Math.max(done, missRegisters[missed].pending(address, start));
+		
+		for (int i = 0; i < missed; i++)
+			if (missRegisters[i] != null)
+				missRegisters[i].take(address, start, done);
+		return done;
+	}
+	
+	private int reserveCdb(int cycle) {
+		// Write cycles before the current issue cycle can never be requested again
+		int shift = issued - cdbBase;
+		if (shift >= cdb.length)
+			Arrays.fill(cdb, false);
+		else
+			for (int i = cdbBase; i < issued; i++)
+				cdb[i & (cdb.length - 1)] = false;
+		cdbBase = issued;
+		
+		while (cycle - cdbBase < cdb.length && cdb[cycle & (cdb.length - 1)])
+			cycle++;
+		
+		if (cycle - cdbBase >= cdb.length) {
+			int length = cdb.length;
+			while (cycle - cdbBase >= length)
+				length *= 2;
+			
+			boolean[] grown = new boolean[length];
+			for (int i = cdbBase; i < cdbBase + cdb.length; i++)
+				grown[i & (length - 1)] = cdb[i & (cdb.length - 1)];
+			cdb = grown;
+		}
+		
+		cdb[cycle & (cdb.length - 1)] = true;
+		return cycle;
+	}
+	
+	public int getIssued() {
+		return issued;
+	}
+	
+	public int getExecuted() {
+		return executed;
+	}
+	
+	public int getWritten() {
+		return written;
+	}
+	
+	public int getCommitted() {
+		return committed;
+	}
+	
+	public int getInstructions() {
+		return instructions;
+	}
+	
+	public void save(Snapshot snapshot) {
+		snapshot.writeInt(instructions);
+		snapshot.writeInt(issued);
+		snapshot.writeInt(executed);
+		snapshot.writeInt(written);
+		snapshot.writeInt(committed);
+		snapshot.writeInt((reset)? 1 : 0);
+		rob.save(snapshot);
+		for (CycleQueue station : stations)
+			station.save(snapshot);
+		
+		snapshot.writeInts(registerWriters, registerWriters.length);
+		snapshot.writeInts(registerWrites, registerWrites.length);
+		stores.save(snapshot);
+		snapshot.writeBooleans(cdb, cdb.length);
+		snapshot.writeInt(cdbBase);
+		if (missRegisters != null)
+			for (MissRegisters registers : missRegisters)
+				if (registers != null)
+					registers.save(snapshot);
+	}
+	
+	public void restore(Snapshot snapshot) {
+		instructions = snapshot.readInt();
+		issued = snapshot.readInt();
+		executed = snapshot.readInt();
+		written = snapshot.readInt();
+		committed = snapshot.readInt();
+		reset = snapshot.readInt() != 0;
+		rob.restore(snapshot);
+		for (CycleQueue station : stations)
+			station.restore(snapshot);
+		
+		registerWriters = snapshot.readInts();
+		registerWrites = snapshot.readInts();
+		stores.restore(snapshot);
+		cdb = snapshot.readBooleans();
+		cdbBase = snapshot.readInt();
+		if (registerWriters.length != 8 || registerWrites.length != 8 || !Helpers.isPowerOf2(cdb.length))
+			throw new IllegalArgumentException("Invalid snapshot schedule");
+		
+		if (missRegisters != null)
+			for (MissRegisters registers : missRegisters)
+				if (registers != null)
+					registers.restore(snapshot);
+	}
+	
+	public void clear() {
+		instructions = 0;
+		issued = 0;
+		executed = 0;
+		written = 0;
+		committed = 0;
+		reset = false;
+		rob = new CycleQueue();
+		stations = new CycleQueue[configuration.length - 1];
+		for (int i = 0; i < stations.length; i++)
+			stations[i] = new CycleQueue();
+		
+		registerWriters = new int[8];
+		registerWrites = new int[8];
+		Arrays.fill(registerWriters, -1);
+		stores = new StoreTable();
+		cdb = new boolean[64];
+		cdbBase = 0;
+		
+		missRegisters = null;
+		for (int i = 0; i < caches.length; i++)
+			if (caches[i][1] > 0) {
+				if (missRegisters == null)
+					missRegisters = new MissRegisters[caches.length];
+				missRegisters[i] = new MissRegisters(caches[i][0], caches[i][1]);
+			}
+	}
+	
+	private static class CycleQueue {
+		
+		private int[] cycles = new int[16];
+		private int head;
+		private int size;
+		
+		public void add(int cycle) {
+			if (size == cycles.length) {
+				int[] grown = new int[cycles.length * 2];
+				for (int i = 0; i < size; i++)
+					grown[i] = cycles[(head + i) & (cycles.length - 1)];
+				cycles = grown;
+				head = 0;
+			}
+			cycles[(head + size) & (cycles.length - 1)] = cycle;
+			size++;
+		}
+		
+		// Cycles are added in increasing order, so everything done by the given cycle sits at the front
+		public void release(int cycle) {
+			while (size > 0 && cycles[head] <= cycle) {
+				head = (head + 1) & (cycles.length - 1);
+				size--;
+			}
+		}
+		
+		public void save(Snapshot snapshot) {
+			int[] ordered = new int[size];
+			for (int i = 0; i < size; i++)
+				ordered[i] = cycles[(head + i) & (cycles.length - 1)];
+			snapshot.writeInts(ordered, size);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			cycles = new int[16];
+			head = 0;
+			size = 0;
+			for (int cycle : snapshot.readInts())
+				add(cycle);
+		}
+		
+		public int peek() {
+			return cycles[head];
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+	}
+	
+	// Registers are taken in program order, each holding the line it fills until the cycle the fill is done
+	private static class MissRegisters {
+		
+		private int offsetBits;
+		private int[] lines;
+		private int[] done;
+		
+		public MissRegisters(int lineSize, int registers) {
+			offsetBits = Integer.numberOfTrailingZeros(lineSize);
+			lines = new int[registers];
+			done = new int[registers];
+			Arrays.fill(lines, -1);
+		}
+		
+		// First cycle from the given one with a free register
+		public int free(int cycle) {
+			int first = Integer.MAX_VALUE;
+			for (int i = 0; i < done.length; i++) {
+				if (done[i] <= cycle)
+					return cycle;
+				first = Math.min(first, done[i]);
+			}
+			return first;
+		}
+		
+		// Cycle the line holding the address is filled by, 0 when it isn't being filled at the given cycle
+		public int pending(int address, int cycle) {
+			int line = address >>> offsetBits;
+			int filled = 0;
+			for (int i = 0; i < lines.length; i++)
+				if (lines[i] == line && done[i] > cycle)
+					filled = Math.max(filled, done[i]);
+			return filled;
+		}
+		
+		public void take(int address, int cycle, int filled) {
+			for (int i = 0; i < done.length; i++)
+				if (done[i] <= cycle) {
+					lines[i] = address >>> offsetBits;
+					done[i] = filled;
+					return;
+				}
+		}
+		
+		public void save(Snapshot snapshot) {
+			snapshot.writeInts(lines, lines.length);
+			snapshot.writeInts(done, done.length);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			int[] savedLines = snapshot.readInts();
+			int[] savedDone = snapshot.readInts();
+			if (savedLines.length != lines.length || savedDone.length != done.length)
+				throw new IllegalArgumentException("Invalid snapshot schedule");
+			
+			lines = savedLines;
+			done = savedDone;
+		}
+		
+	}
+	
+	private static class StoreTable {
+		
+		private int[] addresses = new int[64];
+		private int[] indices = new int[64];
+		private int[] writes = new int[64];
+		private boolean[] used = new boolean[64];
+		private int size;
+		
+		public int find(int address) {
+			int mask = addresses.length - 1;
+			for (int slot = hash(address) & mask; used[slot]; slot = (slot + 1) & mask)
+				if (addresses[slot] == address)
+					return slot;
+			
+			return -1;
+		}
+		
+		public void put(int address, int index, int write) {
+			int mask = addresses.length - 1;
+			int slot = hash(address) & mask;
+			while (used[slot] && addresses[slot] != address)
+				slot = (slot + 1) & mask;
+			
+			if (!used[slot]) {
+				used[slot] = true;
+				addresses[slot] = address;
+				size++;
+			}
+			indices[slot] = index;
+			writes[slot] = write;
+			
+			if (size * 2 > addresses.length)
+				rehash();
+		}
+		
+		public void save(Snapshot snapshot) {
+			snapshot.writeInt(size);
+			snapshot.writeInts(addresses, addresses.length);
+			snapshot.writeInts(indices, indices.length);
+			snapshot.writeInts(writes, writes.length);
+			snapshot.writeBooleans(used, used.length);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			size = snapshot.readInt();
+			addresses = snapshot.readInts();
+			indices = snapshot.readInts();
+			writes = snapshot.readInts();
+			used = snapshot.readBooleans();
+			if (!Helpers.isPowerOf2(addresses.length) || indices.length != addresses.length || writes.length != addresses.length || used.length != addresses.length)
+				throw new IllegalArgumentException("Invalid snapshot schedule");
+		}
+		
+		private void rehash() {
+			int[] oldAddresses = addresses;
+			int[] oldIndices = indices;
+			int[] oldWrites = writes;
+			boolean[] oldUsed = used;
+			addresses = new int[oldAddresses.length * 2];
+			indices = new int[addresses.length];
+			writes = new int[addresses.length];
+			used = new boolean[addresses.length];
+			size = 0;
+			for (int i = 0; i < oldAddresses.length; i++)
+				if (oldUsed[i])
+					put(oldAddresses[i], oldIndices[i], oldWrites[i]);
+		}
+		
+		private static int hash(int address) {
+			int h = address * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+		
+	}
+	
+}
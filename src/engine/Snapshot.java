@@ -0,0 +1,130 @@
+package engine;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class Snapshot {
+	
+	// Snapshots start with "RiSC" and a format version
+	private static final int MAGIC = 0x52695343;
+	private static final int VERSION = 4;
+	
+	private String file;
+	private DataOutputStream out;
+	private ByteBuffer in;
+	
+	private Snapshot(String file) {
+		this.file = file;
+	}
+	
+	public static Snapshot create(String file) {
+		Snapshot snapshot = new Snapshot(file);
+		try {
+			snapshot.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the snapshot (" + file + ")");
+		}
+		snapshot.writeInt(MAGIC);
+		snapshot.writeInt(VERSION);
+		return snapshot;
+	}
+	
+	// The file is memory mapped, so arrays are copied straight out of the page cache
+	public static Snapshot open(String file) {
+		Snapshot snapshot = new Snapshot(file);
+		try (RandomAccessFile access = new RandomAccessFile(file, "r"); FileChannel channel = access.getChannel()) {
+			snapshot.in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't read the snapshot (" + file + ")");
+		}
+		if (snapshot.readInt() != MAGIC || snapshot.readInt() != VERSION)
+			throw new IllegalArgumentException("Invalid snapshot (" + file + ")");
+		
+		return snapshot;
+	}
+	
+	public void writeInt(int value) {
+		try {
+			out.writeInt(value);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the snapshot (" + file + ")");
+		}
+	}
+	
+	public void writeInts(int[] values, int length) {
+		writeInt(length);
+		for (int i = 0; i < length; i++)
+			writeInt(values[i]);
+	}
+	
+	public void writeBytes(byte[] values, int length) {
+		writeInt(length);
+		try {
+			out.write(values, 0, length);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the snapshot (" + file + ")");
+		}
+	}
+	
+	public void writeBooleans(boolean[] values, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = (byte)((values[i])? 1 : 0);
+		writeBytes(bytes, length);
+	}
+	
+	public int readInt() {
+		try {
+			return in.getInt();
+		} catch (BufferUnderflowException ex) {
+			throw new IllegalArgumentException("Invalid snapshot (" + file + ")");
+		}
+	}
+	
+	public int[] readInts() {
+		int[] values = new int[length(4)];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + values.length * 4);
+		return values;
+	}
+	
+	public byte[] readBytes() {
+		byte[] values = new byte[length(1)];
+		in.get(values);
+		return values;
+	}
+	
+	public boolean[] readBooleans() {
+		byte[] bytes = readBytes();
+		boolean[] values = new boolean[bytes.length];
+		for (int i = 0; i < bytes.length; i++)
+			values[i] = bytes[i] != 0;
+		return values;
+	}
+	
+	private int length(int elementSize) {
+		int length = readInt();
+		if (length < 0 || (long)length * elementSize > in.remaining())
+			throw new IllegalArgumentException("Invalid snapshot (" + file + ")");
+		
+		return length;
+	}
+	
+	public void close() {
+		if (out == null)
+			return;
+		
+		try {
+			out.close();
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the snapshot (" + file + ")");
+		}
+	}
+	
+}
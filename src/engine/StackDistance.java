@@ -0,0 +1,234 @@
+package engine;
+
+import java.util.Arrays;
+
+public class StackDistance {
+	
+	private final int lineSize;
+	private final int offsetBits;
+	private final int maxSets;
+	private final int maxAssociativity;
+	private long accesses;
+	
+	// One analysis per set count (1, 2, 4, ... maxSets), all fed by the same accesses
+	private SetCount[] setCounts;
+	
+	public StackDistance(int lineSize, int maxSets, int maxAssociativity) {
+		if (lineSize < 2 || !Helpers.isPowerOf2(lineSize))
+			throw new IllegalArgumentException("Cache line size (" + lineSize + ") must be a power of 2 greater than 1B");
+		
+		if (maxSets < 1 || !Helpers.isPowerOf2(maxSets))
+			throw new IllegalArgumentException("Cache sets (" + maxSets + ") must be a power of 2");
+		
+		if (maxAssociativity < 1)
+			throw new IllegalArgumentException("Invalid cache associativity (" + maxAssociativity + ")");
+		
+		this.lineSize = lineSize;
+		this.offsetBits = Integer.numberOfTrailingZeros(lineSize);
+		this.maxSets = maxSets;
+		this.maxAssociativity = maxAssociativity;
+		clear();
+	}
+	
+	public void access(int address) {
+		accesses++;
+		int line = address >>> offsetBits;
+		for (SetCount setCount : setCounts)
+			setCount.access(line, maxAssociativity);
+	}
+	
+	// Hit ratio of an LRU, write-allocate cache of the given shape with this analyzer's line size
+	public double getHitRatio(int sets, int associativity) {
+		if (sets < 1 || sets > maxSets || !Helpers.isPowerOf2(sets))
+			throw new IllegalArgumentException("Cache sets (" + sets + ") must be a power of 2 up to " + maxSets);
+		
+		if (associativity < 1 || associativity > maxAssociativity)
+			throw new IllegalArgumentException("Cache associativity (" + associativity + ") must be between 1 and " + maxAssociativity);
+		
+		if (accesses == 0)
+			return 0;
+		
+		long[] histogram = setCounts[Integer.numberOfTrailingZeros(sets)].histogram;
+		long hits = 0;
+		for (int distance = 0; distance < associativity; distance++)
+			hits += histogram[distance];
+		return hits * 1.0 / accesses;
+	}
+	
+	public Object[] displayHitRatios() {
+		int columns = 32 - Integer.numberOfLeadingZeros(maxAssociativity);
+		String[] headers = new String[columns + 1];
+		headers[0] = "Sets";
+		for (int j = 0; j < columns; j++)
+			headers[j + 1] = (1 << j) + "-way";
+		
+		String[][] data = new String[setCounts.length][columns + 1];
+		for (int i = 0; i < setCounts.length; i++) {
+			data[i][0] = (1 << i) + "";
+			for (int j = 0; j < columns; j++)
+				data[i][j + 1] = String.format("%.2f", getHitRatio(1 << i, 1 << j) * 100) + "%";
+		}
+		String data2 = String.format("%-10s: %d\n%-10s: %dB", "Accesses", accesses, "Line size", lineSize);
+		return new Object[]{data, headers, data2};
+	}
+	
+	public long getAccesses() {
+		return accesses;
+	}
+	
+	public void clear() {
+		accesses = 0;
+		setCounts = new SetCount[Integer.numberOfTrailingZeros(maxSets) + 1];
+		for (int i = 0; i < setCounts.length; i++)
+			setCounts[i] = new SetCount(1 << i, maxAssociativity);
+	}
+	
+	private static class SetCount {
+		
+		private int mask;
+		// Accesses per reuse distance, the last entry counting those at maxAssociativity or beyond and first accesses
+		private long[] histogram;
+		private LineTable lines;
+		private SetStack[] stacks;
+		
+		public SetCount(int sets, int maxAssociativity) {
+			mask = sets - 1;
+			histogram = new long[maxAssociativity + 1];
+			lines = new LineTable();
+			stacks = new SetStack[sets];
+			for (int s = 0; s < sets; s++)
+				stacks[s] = new SetStack();
+		}
+		
+		public void access(int line, int maxAssociativity) {
+			SetStack stack = stacks[line & mask];
+			int slot = lines.find(line);
+			if (slot == -1)
+				histogram[maxAssociativity]++;
+			else {
+				histogram[Math.min(stack.distance(lines.times[slot]), maxAssociativity)]++;
+				stack.remove(lines.times[slot]);
+			}
+			
+			if (stack.isFull())
+				stack.compact(lines);
+			lines.put(line, stack.add(line));
+		}
+		
+	}
+	
+	// The lines of one set, each marked at the time of its last access in a Fenwick tree, so that the number of
+	// distinct lines used since any access is a prefix sum away
+	private static class SetStack {
+		
+		private int[] tree = new int[17];
+		private int[] lineAt = new int[16];
+		private int time;
+		private int live;
+		
+		public int distance(int lastTime) {
+			int sum = 0;
+			for (int i = lastTime + 1; i > 0; i -= i & -i)
+				sum += tree[i];
+			return live - sum;
+		}
+		
+		public void remove(int lastTime) {
+			for (int i = lastTime + 1; i < tree.length; i += i & -i)
+				tree[i]--;
+			lineAt[lastTime] = -1;
+			live--;
+		}
+		
+		public int add(int line) {
+			for (int i = time + 1; i < tree.length; i += i & -i)
+				tree[i]++;
+			lineAt[time] = line;
+			live++;
+			return time++;
+		}
+		
+		public boolean isFull() {
+			return time == lineAt.length;
+		}
+		
+		// Renumbers the live lines from 0 in access order, leaving room for as many accesses again
+		public void compact(LineTable lines) {
+			int[] compacted = new int[Math.max(16, live * 2)];
+			int next = 0;
+			for (int t = 0; t < time; t++)
+				if (lineAt[t] != -1) {
+					compacted[next] = lineAt[t];
+					lines.put(lineAt[t], next++);
+				}
+			Arrays.fill(compacted, next, compacted.length, -1);
+			
+			tree = new int[compacted.length + 1];
+			for (int i = 1; i < tree.length; i++) {
+				if (i <= next)
+					tree[i]++;
+				if (i + (i & -i) < tree.length)
+					tree[i + (i & -i)] += tree[i];
+			}
+			lineAt = compacted;
+			time = next;
+		}
+		
+	}
+	
+	// Open addressing map from a line number to its last access time within its set
+	private static class LineTable {
+		
+		private int[] keys = new int[64];
+		private int[] times = new int[64];
+		private int size;
+		
+		public LineTable() {
+			Arrays.fill(keys, -1);
+		}
+		
+		public int find(int line) {
+			int mask = keys.length - 1;
+			for (int slot = hash(line) & mask; keys[slot] != -1; slot = (slot + 1) & mask)
+				if (keys[slot] == line)
+					return slot;
+			
+			return -1;
+		}
+		
+		public void put(int line, int time) {
+			int mask = keys.length - 1;
+			int slot = hash(line) & mask;
+			while (keys[slot] != -1 && keys[slot] != line)
+				slot = (slot + 1) & mask;
+			
+			if (keys[slot] == -1) {
+				keys[slot] = line;
+				size++;
+			}
+			times[slot] = time;
+			
+			if (size * 2 > keys.length)
+				rehash();
+		}
+		
+		private void rehash() {
+			int[] oldKeys = keys;
+			int[] oldTimes = times;
+			keys = new int[oldKeys.length * 2];
+			times = new int[keys.length];
+			Arrays.fill(keys, -1);
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++)
+				if (oldKeys[i] != -1)
+					put(oldKeys[i], oldTimes[i]);
+		}
+		
+		private static int hash(int line) {
+			int h = line * 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+		
+	}
+	
+}
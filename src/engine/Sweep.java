@@ -0,0 +1,249 @@
+package engine;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class Sweep {
+	
+	// Instructions each configuration may run before it is stopped as not ending
+	public static final long INSTRUCTION_LIMIT = 100000000;
+	
+	private String data;
+	private String program;
+	private ArrayList<int[][]> cacheConfigs;
+	private ArrayList<int[][]> unitsConfigs;
+	private Result[] results;
+	private long instructionLimit;
+	
+	public Sweep(String data, String program) {
+		this.data = data;
+		this.program = program;
+		instructionLimit = INSTRUCTION_LIMIT;
+		cacheConfigs = new ArrayList<int[][]>();
+		unitsConfigs = new ArrayList<int[][]>();
+	}
+	
+	// Configurations are in the form taken by the Processor constructor
+	public void add(int[][] cacheConfig, int[][] unitsConfig) {
+		cacheConfigs.add(copy(cacheConfig));
+		unitsConfigs.add(copy(unitsConfig));
+	}
+	
+	public void setInstructionLimit(long instructionLimit) {
+		if (instructionLimit < 1)
+			throw new IllegalArgumentException("Invalid instruction limit (" + instructionLimit + ")");
+		
+		this.instructionLimit = instructionLimit;
+	}
+	
+	public void addGrid(List<int[][]> cacheConfigs, List<int[][]> unitsConfigs) {
+		for (int[][] cacheConfig : cacheConfigs)
+			for (int[][] unitsConfig : unitsConfigs)
+				add(cacheConfig, unitsConfig);
+	}
+	
+	// Every configuration runs to completion on its own Processor, the pool keeping all threads busy
+	public void run(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid number of threads (" + threads + ")");
+		
+		results = new Result[cacheConfigs.size()];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new Simulation(0, results.length));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	public void run() {
+		run(Runtime.getRuntime().availableProcessors());
+	}
+	
+	private class Simulation extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private int from;
+		private int to;
+		
+		public Simulation(int from, int to) {
+			this.from = from;
+			this.to = to;
+		}
+		
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new Simulation(from, middle), new Simulation(middle, to));
+				return;
+			}
+			
+			for (int i = from; i < to; i++)
+				results[i] = simulate(cacheConfigs.get(i), unitsConfigs.get(i));
+		}
+		
+	}
+	
+	// A configuration that can't run, or doesn't end within the instruction limit, keeps its error in its row instead
+	// of stopping the sweep
+	private Result simulate(int[][] cacheConfig, int[][] unitsConfig) {
+		Result result = new Result();
+		try {
+			Processor processor = new Processor(copy(cacheConfig), copy(unitsConfig));
+			Assembler.assemble(data, program, processor);
+			processor.getUnitSet().setStreaming(true, null);
+			if (!processor.execute(instructionLimit)) {
+				result.error = "Didn't end within " + instructionLimit + " instructions";
+				return result;
+			}
+			
+			result.instructions = processor.getUnitSet().getInstructions();
+			result.cycles = processor.getUnitSet().getCycles();
+			result.hitRatios = new double[cacheConfig.length - 1];
+			result.hitRatios[0] = ratio(processor.getInstructionCache().getHits(), processor.getInstructionCache().getAccesses());
+			for (int level = 0; processor.getDataCache(level) != null; level++)
+				result.hitRatios[level + 1] = ratio(processor.getDataCache(level).getHits(), processor.getDataCache(level).getAccesses());
+		} catch (IllegalArgumentException ex) {
+			result.error = ex.getMessage();
+		} catch (RuntimeException ex) {
+			result.error = ex.toString();
+		}
+		return result;
+	}
+	
+	private static double ratio(int hits, int accesses) {
+		return (accesses == 0)? 0 : hits * 1.0 / accesses;
+	}
+	
+	private static int[][] copy(int[][] config) {
+		int[][] copy = new int[config.length][];
+		for (int i = 0; i < config.length; i++)
+			copy[i] = config[i].clone();
+		return copy;
+	}
+	
+	private int levels() {
+		int levels = 0;
+		for (Result result : results)
+			if (result.hitRatios != null)
+				levels = Math.max(levels, result.hitRatios.length - 1);
+		return levels;
+	}
+	
+	public Object[] displayResults() {
+		int levels = levels();
+		String[] headers = new String[levels + 6];
+		String[][] data = new String[results.length][headers.length];
+		headers[0] = "Caches";
+		headers[1] = "Units";
+		headers[2] = "Instructions";
+		headers[3] = "Cycles";
+		headers[4] = "IPC";
+		headers[5] = "L1I hit ratio";
+		for (int level = 0; level < levels; level++)
+			headers[level + 6] = "L" + (level + 1) + "D hit ratio";
+		
+		for (int i = 0; i < results.length; i++) {
+			data[i][0] = Arrays.deepToString(cacheConfigs.get(i));
+			data[i][1] = Arrays.deepToString(unitsConfigs.get(i));
+			if (results[i].error != null) {
+				Arrays.fill(data[i], 2, headers.length, "");
+				data[i][2] = results[i].error;
+				continue;
+			}
+			data[i][2] = results[i].instructions + "";
+			data[i][3] = results[i].cycles + "";
+			data[i][4] = String.format("%.2f", results[i].getIpc());
+			for (int level = 0; level <= levels; level++)
+				data[i][level + 5] = (level < results[i].hitRatios.length)? String.format("%.2f", results[i].hitRatios[level] * 100) + "%" : "";
+		}
+		return new Object[]{data, headers, String.format("Configurations : %d", results.length)};
+	}
+	
+	public void writeCsv(String file) {
+		int levels = levels();
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			out.print("caches,units,instructions,cycles,ipc,l1i_hit_ratio");
+			for (int level = 0; level < levels; level++)
+				out.print(",l" + (level + 1) + "d_hit_ratio");
+			out.println(",error");
+			
+			for (int i = 0; i < results.length; i++) {
+				Result result = results[i];
+				out.print("\"" + Arrays.deepToString(cacheConfigs.get(i)) + "\",\"" + Arrays.deepToString(unitsConfigs.get(i)) + "\"");
+				if (result.error != null) {
+					out.println(",".repeat(levels + 5) + "\"" + result.error.replace("\"", "\"\"") + "\"");
+					continue;
+				}
+				out.print("," + result.instructions + "," + result.cycles + "," + result.getIpc());
+				for (int level = 0; level <= levels; level++)
+					out.print("," + ((level < result.hitRatios.length)? result.hitRatios[level] + "" : ""));
+				out.println(",");
+			}
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the results (" + file + ")");
+		}
+	}
+	
+	public void writeJson(String file) {
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			out.println("[");
+			for (int i = 0; i < results.length; i++) {
+				Result result = results[i];
+				out.print("  {\"caches\": " + Arrays.deepToString(cacheConfigs.get(i)) + ", \"units\": " + Arrays.deepToString(unitsConfigs.get(i)));
+				if (result.error != null)
+					out.print(", \"error\": \"" + result.error.replace("\\", "\\\\").replace("\"", "\\\"") + "\"");
+				else {
+					out.print(", \"instructions\": " + result.instructions + ", \"cycles\": " + result.cycles + ", \"ipc\": " + result.getIpc());
+					out.print(", \"hitRatios\": " + Arrays.toString(result.hitRatios));
+				}
+				out.println("}" + ((i == results.length - 1)? "" : ","));
+			}
+			out.println("]");
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the results (" + file + ")");
+		}
+	}
+	
+	public int size() {
+		return cacheConfigs.size();
+	}
+	
+	public long getCycles(int index) {
+		return results[index].cycles;
+	}
+	
+	public double getIpc(int index) {
+		return results[index].getIpc();
+	}
+	
+	// Hit ratios of the instruction cache first, then of each data cache level
+	public double[] getHitRatios(int index) {
+		return results[index].hitRatios;
+	}
+	
+	public String getError(int index) {
+		return results[index].error;
+	}
+	
+	private static class Result {
+		
+		private long instructions;
+		private long cycles;
+		private double[] hitRatios;
+		private String error;
+		
+		public double getIpc() {
+			return (cycles == 0)? 0 : instructions * 1.0 / cycles;
+		}
+		
+	}
+	
+}
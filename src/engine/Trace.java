@@ -0,0 +1,216 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import engine.storage.Memory;
+import engine.types.Instruction;
+import engine.types.Opcode;
+
+public class Trace {
+	
+	// Traces start with "RiST", a format version, the number of instructions and the program they ran. Each instruction
+	// then takes the zigzag varint of its pc's distance from the previous pc + 2, followed for loads and stores by the
+	// distance of its effective address from the previous one. A last distance gives the pc the trace stopped at
+	private static final int MAGIC = 0x52695354;
+	private static final int VERSION = 1;
+	private static final int COUNT_POSITION = 8;
+	
+	private String file;
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private int startAddress;
+	private int[] words;
+	private long instructions;
+	private long remaining;
+	private int pc;
+	private int nextPc;
+	private int word;
+	private int effectiveAddress;
+	
+	private Trace(String file) {
+		this.file = file;
+		this.buffer = ByteBuffer.allocateDirect(1 << 16);
+	}
+	
+	public static Trace create(String file, Memory memory) {
+		Trace trace = new Trace(file);
+		try {
+			trace.channel = FileChannel.open(Paths.get(file), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the trace (" + file + ")");
+		}
+		trace.buffer.putInt(MAGIC);
+		trace.buffer.putInt(VERSION);
+		trace.buffer.putLong(0);
+		trace.buffer.putInt(memory.getInstructionsStartAddress());
+		trace.buffer.putInt(memory.getInstructionCount());
+		for (int i = 0; i < memory.getInstructionCount(); i++) {
+			trace.ensure(4);
+			trace.buffer.putInt(memory.getInstructionWord(memory.getInstructionsStartAddress() + i * 2));
+		}
+		trace.pc = -2;
+		return trace;
+	}
+	
+	public static Trace open(String file) {
+		Trace trace = new Trace(file);
+		try {
+			trace.channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ);
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't read the trace (" + file + ")");
+		}
+		trace.buffer.limit(0);
+		trace.fill(24);
+		if (trace.buffer.remaining() < 24 || trace.buffer.getInt() != MAGIC || trace.buffer.getInt() != VERSION)
+			throw new IllegalArgumentException("Invalid trace (" + file + ")");
+		
+		trace.remaining = trace.buffer.getLong();
+		trace.startAddress = trace.buffer.getInt();
+		int count = trace.buffer.getInt();
+		if (trace.remaining < 0 || count < 0 || count > (1 << 22))
+			throw new IllegalArgumentException("Invalid trace (" + file + ")");
+		
+		trace.words = new int[count];
+		for (int i = 0; i < count; i++) {
+			trace.fill(4);
+			trace.words[i] = trace.buffer.getInt();
+		}
+		trace.effectiveAddress = 0;
+		trace.nextPc = (trace.remaining == 0)? 0 : trace.readVarint();
+		return trace;
+	}
+	
+	public void record(int address, int word, int effectiveAddress) {
+		ensure(10);
+		writeVarint(address - (pc + 2));
+		pc = address;
+		Opcode opcode = Instruction.opcodeOf(word);
+		if (opcode == Opcode.LW || opcode == Opcode.SW) {
+			ensure(10);
+			writeVarint(effectiveAddress - this.effectiveAddress);
+			this.effectiveAddress = effectiveAddress;
+		}
+		instructions++;
+	}
+	
+	// Ends a recorded trace at the given pc and writes its length into the header
+	public void close(int finalPc) {
+		try {
+			if (instructions > 0) {
+				ensure(10);
+				writeVarint(finalPc - (pc + 2));
+			}
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			
+			ByteBuffer count = ByteBuffer.allocate(8).putLong(0, instructions);
+			channel.write(count, COUNT_POSITION);
+			channel.close();
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the trace (" + file + ")");
+		}
+	}
+	
+	// Moves to the next instruction of a trace being read, returning false past the last one
+	public boolean next() {
+		if (remaining == 0) {
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				throw new IllegalArgumentException("Can't read the trace (" + file + ")");
+			}
+			return false;
+		}
+		
+		pc = nextPc;
+		int index = (pc - startAddress) / 2;
+		if (pc % 2 != 0 || index < 0 || index >= words.length)
+			throw new IllegalArgumentException("Invalid trace address (" + pc + ")");
+		
+		word = words[index];
+		Opcode opcode = Instruction.opcodeOf(word);
+		if (opcode == Opcode.LW || opcode == Opcode.SW)
+			effectiveAddress += readVarint();
+		nextPc = pc + 2 + readVarint();
+		remaining--;
+		return true;
+	}
+	
+	public int getPc() {
+		return pc;
+	}
+	
+	public int getWord() {
+		return word;
+	}
+	
+	public int getEffectiveAddress() {
+		return effectiveAddress;
+	}
+	
+	public int getNextPc() {
+		return nextPc;
+	}
+	
+	public long getInstructions() {
+		return instructions;
+	}
+	
+	private void writeVarint(int value) {
+		int zigzag = (value << 1) ^ (value >> 31);
+		while ((zigzag & ~0x7f) != 0) {
+			buffer.put((byte)((zigzag & 0x7f) | 0x80));
+			zigzag >>>= 7;
+		}
+		buffer.put((byte)zigzag);
+	}
+	
+	private int readVarint() {
+		fill(5);
+		int zigzag = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			if (!buffer.hasRemaining())
+				throw new IllegalArgumentException("Invalid trace (" + file + ")");
+			byte b = buffer.get();
+			zigzag |= (b & 0x7f) << shift;
+			if (b >= 0)
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+		}
+		throw new IllegalArgumentException("Invalid trace (" + file + ")");
+	}
+	
+	// Writes the buffer out when fewer than the given bytes are left in it
+	private void ensure(int bytes) {
+		if (buffer.remaining() >= bytes)
+			return;
+		
+		try {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				channel.write(buffer);
+			buffer.clear();
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't write the trace (" + file + ")");
+		}
+	}
+	
+	// Reads more of the file when fewer than the given bytes are buffered, stopping early at its end
+	private void fill(int bytes) {
+		if (buffer.remaining() >= bytes)
+			return;
+		
+		try {
+			buffer.compact();
+			while (buffer.position() < bytes && channel.read(buffer) > 0);
+			buffer.flip();
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't read the trace (" + file + ")");
+		}
+	}
+	
+}
@@ -1,155 +1,236 @@
 package engine;
 
-import java.util.ArrayList;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
+import engine.types.ExecutionResult;
 import engine.types.FunctionType;
 import engine.types.Instruction;
 
 public class UnitSet {
 	
+	private static final FunctionType[] functionTypes = FunctionType.values();
+	
 	private int[][] configuration;
-	private ArrayList<Instruction> executed;
+	
+	// Line size and miss registers of each data cache level
+	private int[][] caches = new int[0][];
+	
+	// The executed instructions are kept column by column, one entry per dynamic instruction
+	private int executed;
+	private int[] addresses;
+	private int[] words;
+	private byte[] functions;
+	private byte[] destinations;
+	private byte[] firstSources;
+	private byte[] secondSources;
+	private int[] effectiveAddresses;
+	private int[] executionTimes;
+	private byte[] levels;
+	private boolean[] taken;
+	
+	// When streaming, instructions are scheduled as they retire and only their timings may be spilled to a file
+	private boolean streaming;
+	private String spillFile;
+	private PrintWriter spill;
+	private Scheduler scheduler;
 	
 	public UnitSet(int[][] configuration) {
-		executed = new ArrayList<Instruction>();
+		clear();
 		setConfiguration(configuration);
 	}
+	
+	public void addExecutedInstruction(int address, int word, ExecutionResult result) {
+		FunctionType function = result.getFunction();
+		int executionTime = (result.getExecutionTime() == -1)? getExecutionTime(configuration, function) : result.getExecutionTime();
+		int source1;
+		int source2;
+		if (function == FunctionType.BRANCH || function == FunctionType.STORE) {
+			source1 = Instruction.registerOf(word, 0);
+			source2 = Instruction.registerOf(word, 1);
+		} else if (function == FunctionType.JUMP) {
+			source1 = Instruction.registerOf(word, 0);
+			source2 = -1;
+		} else {
+			source1 = Instruction.registerOf(word, 1);
+			source2 = Instruction.registerOf(word, 2);
+		}
+		boolean branchTaken = function == FunctionType.BRANCH &&
+				address + Instruction.immediateOf(word) + 2 == result.getEffectiveAddress();
 		
-	public void addExecutedInstruction(Instruction instruction) {
-		if (instruction.getExecutionTime() == -1)
-			instruction.setExecutionTime(getExecutionTime(instruction.getFunction()));
+		if (streaming) {
+			boolean mispredicted = function == FunctionType.BRANCH && branchTaken != (Instruction.immediateOf(word) >= 0);
+			scheduler.schedule(function, result.getDestination(), source1, source2, result.getEffectiveAddress(), executionTime, result.getLevel(), mispredicted);
+			if (spill != null)
+				spill.printf("%s\t%d\t%d\t%d\t%d%n", new Instruction(address, word), scheduler.getIssued(),
+						scheduler.getExecuted(), scheduler.getWritten(), scheduler.getCommitted());
+			return;
+		}
+		
+		if (executed == addresses.length)
+			grow();
 		
-		executed.add(instruction);
+		addresses[executed] = address;
+		words[executed] = word;
+		functions[executed] = (byte)function.ordinal();
+		destinations[executed] = (byte)result.getDestination();
+		effectiveAddresses[executed] = result.getEffectiveAddress();
+		executionTimes[executed] = executionTime;
+		levels[executed] = (byte)result.getLevel();
+		firstSources[executed] = (byte)source1;
+		secondSources[executed] = (byte)source2;
+		taken[executed] = branchTaken;
+		executed++;
+	}
+	
+	private void grow() {
+		int capacity = addresses.length * 2;
+		addresses = Arrays.copyOf(addresses, capacity);
+		words = Arrays.copyOf(words, capacity);
+		functions = Arrays.copyOf(functions, capacity);
+		destinations = Arrays.copyOf(destinations, capacity);
+		firstSources = Arrays.copyOf(firstSources, capacity);
+		secondSources = Arrays.copyOf(secondSources, capacity);
+		effectiveAddresses = Arrays.copyOf(effectiveAddresses, capacity);
+		executionTimes = Arrays.copyOf(executionTimes, capacity);
+		levels = Arrays.copyOf(levels, capacity);
+		taken = Arrays.copyOf(taken, capacity);
 	}
 	
 	public Object[] displaySchedule() {
+		if (streaming)
+			return displayStreamedSchedule();
+		
 		int[][] timings = scheduleInstructions();
-		String[] headers = {"Instruction", "Issued", "Executed", "Written", "Committed"}; 
+		String[] headers = {"Instruction", "Issued", "Executed", "Written", "Committed"};
 		String[][] data = new String[timings.length][5];
 		for (int i = 0; i < timings.length; i++) {
-			data[i][0] = executed.get(i) + "";
+			data[i][0] = new Instruction(addresses[i], words[i]) + "";
 			data[i][1] = timings[i][0] + "";
 			data[i][2] = timings[i][1] + "";
 			data[i][3] = timings[i][2] + "";
 			data[i][4] = timings[i][3] + "";
 		}
 		int cycles = timings[timings.length - 1][3];
-		String data2 = String.format("Executed : %d Instructions\nDuration : %d Cycles\n", executed.size(), cycles);
-		data2 += String.format("IPC      : %.2f", executed.size() * 1.0 / cycles);
+		String data2 = String.format("Executed : %d Instructions\nDuration : %d Cycles\n", executed, cycles);
+		data2 += String.format("IPC      : %.2f", executed * 1.0 / cycles);
 		return new Object[]{data, headers, data2};
 	}
 	
+	private Object[] displayStreamedSchedule() {
+		flush();
+		String[] headers = {"Instruction", "Issued", "Executed", "Written", "Committed"};
+		int instructions = scheduler.getInstructions();
+		int cycles = scheduler.getCommitted();
+		String data2 = String.format("Executed : %d Instructions\nDuration : %d Cycles\n", instructions, cycles);
+		data2 += String.format("IPC      : %.2f", (cycles == 0)? 0 : instructions * 1.0 / cycles);
+		if (spillFile != null)
+			data2 += "\nTimings  : " + spillFile;
+		
+		return new Object[]{new String[0][5], headers, data2};
+	}
+	
 	private int[][] scheduleInstructions() {
-		int[][] schedule = new int[executed.size()][4];
-		int dependancy;
-		boolean reset = false;
-		boolean cdbEmpty;
-		Instruction instruction;
+		int[][] schedule = new int[executed][4];
+		Scheduler scheduler = new Scheduler(configuration, caches);
 		for (int i = 0; i < schedule.length; i++) {
-			instruction = executed.get(i);
-			
-			if (i == 0)
-				schedule[i][0] = 1;
-			else if (reset)
-				schedule[i][0] = schedule[i - 1][3] + 1;
-			else
-				schedule[i][0] = Math.max(getIssueCycle1(schedule, i), getIssueCycle2(schedule, i));
-			
-			dependancy = getDependancy(i);
-			schedule[i][1] = (dependancy == -1)? schedule[i][0] : Math.max(schedule[dependancy][2], schedule[i][0]);
-			schedule[i][1] += executed.get(i).getExecutionTime();
-			schedule[i][2] = schedule[i][1] + 1;
-			
-			do {
-				cdbEmpty = true;
-				for (int j = 0; j < i; j++) {
-					if (schedule[i][2] == schedule[j][2]) {
-						cdbEmpty = false;
-						schedule[i][2]++;
-						break;
-					}
-				}
-			} while(!cdbEmpty);
-			
-			schedule[i][3] = ((i == 0)? schedule[0][2] : Math.max(schedule[i - 1][3], schedule[i][2])) + 1;
-			
-			reset = false;
-			if (instruction.getFunction() == FunctionType.BRANCH) {
-				int takenAddress = instruction.getAddress() + (Integer)instruction.getOperands()[2] + 2;
-				boolean taken = takenAddress == instruction.getEffectiveAddress();
-				boolean prediction = (Integer)instruction.getOperands()[2] >= 0;
-				reset = taken != prediction;
-			}
+			FunctionType function = functionTypes[functions[i]];
+			boolean mispredicted = function == FunctionType.BRANCH && taken[i] != (Instruction.immediateOf(words[i]) >= 0);
+			scheduler.schedule(function, destinations[i], firstSources[i], secondSources[i], effectiveAddresses[i], executionTimes[i], levels[i], mispredicted);
+			schedule[i][0] = scheduler.getIssued();
+			schedule[i][1] = scheduler.getExecuted();
+			schedule[i][2] = scheduler.getWritten();
+			schedule[i][3] = scheduler.getCommitted();
 		}
 		return schedule;
 	}
 	
-	private int getIssueCycle1(int[][] schedule, int instructionNumber) {
-		int cycle = schedule[instructionNumber - 1][0] + 1;
-		int minCycle = schedule[instructionNumber - 1][3];
-		int robEntries = 0;
-		for (int j = instructionNumber - 1; j > -1; j--) {
-			if (cycle >= schedule[j][0] && cycle < schedule[j][3]) {
-				robEntries++;
-				if (minCycle > schedule[j][3]) {
-					minCycle = schedule[j][3];
-				}
-			}
+	// Schedules the executed instructions once per configuration on a pool of threads, all reading the same columns,
+	// and returns the cycles each took
+	public int[] scheduleConfigurations(List<int[][]> configurations, int threads) {
+		if (streaming)
+			throw new IllegalArgumentException("Streamed runs keep no instructions to reschedule");
+		
+		if (threads < 1)
+			throw new IllegalArgumentException("Invalid number of threads (" + threads + ")");
+		
+		for (int[][] configuration : configurations)
+			checkConfiguration(configuration);
+		
+		int[][][] batch = configurations.toArray(new int[0][][]);
+		int[] cycles = new int[batch.length];
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new BatchSchedule(batch, cycles, 0, batch.length));
+		} finally {
+			pool.shutdown();
 		}
-		return (robEntries >= configuration[0][0])? minCycle + 1 : cycle;
+		return cycles;
 	}
 	
-	private int getIssueCycle2(int[][] schedule, int instructionNumber) {
-		FunctionType function = executed.get(instructionNumber).getFunction();
-		int cycle = schedule[instructionNumber - 1][0] + 1;
+	private class BatchSchedule extends RecursiveAction {
 		
-		if (function.ordinal() >= configuration.length - 1)
-			return cycle;
-		
-		int minCycle = schedule[instructionNumber - 1][3];
-		int stations = 0;
-		for (int j = instructionNumber - 1; j > -1; j--) {
-			if (function == executed.get(j).getFunction() && cycle >= schedule[j][0] && cycle < schedule[j][3]) {
-				stations++;
-				if (minCycle > schedule[j][3]) {
-					minCycle = schedule[j][3];
-				}
-			}
+		private static final long serialVersionUID = 1L;
+		
+		private int[][][] batch;
+		private int[] cycles;
+		private int from;
+		private int to;
+		
+		public BatchSchedule(int[][][] batch, int[] cycles, int from, int to) {
+			this.batch = batch;
+			this.cycles = cycles;
+			this.from = from;
+			this.to = to;
 		}
-		int allStations = configuration[function.ordinal() + 1][0] * configuration[function.ordinal() + 1][1];
-		return (stations >= allStations)? minCycle : cycle;
-	}
-	
-	private int getDependancy(int instructionNumber) {
-		Instruction instruction = executed.get(instructionNumber);
-		boolean writes;
-		for (int i = instructionNumber - 1; i >= 0; i--) {
-			Instruction prev = executed.get(i);
-			writes = prev.getFunction() != FunctionType.STORE && 
-					prev.getFunction() != FunctionType.BRANCH && 
-					prev.getFunction() != FunctionType.JUMP;
-			
-			if (instruction.getFunction() == FunctionType.LOAD) {
-				if (prev.getFunction() == FunctionType.STORE && 
-					prev.getEffectiveAddress() == instruction.getEffectiveAddress())
-					return i;
-			} if (instruction.getFunction() == FunctionType.STORE || instruction.getFunction() == FunctionType.JUMP) {
-				if (writes && prev.getDestination() == instruction.getRegisterNumber(0))
-					return i;
-			} if (instruction.getFunction() == FunctionType.BRANCH) {
-				if (writes && (prev.getDestination() == instruction.getRegisterNumber(0) || 
-					prev.getDestination() == instruction.getRegisterNumber(1)))
-					return i;
-			} else {
-				if (writes && (prev.getDestination() == instruction.getRegisterNumber(1) || 
-					prev.getDestination() == instruction.getRegisterNumber(2)))
-					return i;
+		
+		protected void compute() {
+			if (to - from > 1) {
+				int middle = (from + to) >>> 1;
+				invokeAll(new BatchSchedule(batch, cycles, from, middle), new BatchSchedule(batch, cycles, middle, to));
+				return;
 			}
+			
+			for (int i = from; i < to; i++)
+				cycles[i] = scheduleCycles(batch[i]);
 		}
-		return -1;
+		
+	}
+	
+	// Same as scheduleInstructions for another configuration, keeping only the last commit
+	private int scheduleCycles(int[][] configuration) {
+		int[] times = new int[functionTypes.length];
+		for (FunctionType function : functionTypes)
+			times[function.ordinal()] = getExecutionTime(configuration, function);
+		
+		Scheduler scheduler = new Scheduler(configuration, caches);
+		for (int i = 0; i < executed; i++) {
+			FunctionType function = functionTypes[functions[i]];
+			int time = (times[functions[i]] == -1)? executionTimes[i] : times[functions[i]];
+			boolean mispredicted = function == FunctionType.BRANCH && taken[i] != (Instruction.immediateOf(words[i]) >= 0);
+			scheduler.schedule(function, destinations[i], firstSources[i], secondSources[i], effectiveAddresses[i], time, levels[i], mispredicted);
+		}
+		return scheduler.getCommitted();
 	}
 	
-	private int getExecutionTime(FunctionType function) {
+	public int getInstructions() {
+		return (streaming)? scheduler.getInstructions() : executed;
+	}
+	
+	public int getCycles() {
+		if (streaming)
+			return scheduler.getCommitted();
+		
+		return (executed == 0)? 0 : scheduleInstructions()[executed - 1][3];
+	}
+	
+	private static int getExecutionTime(int[][] configuration, FunctionType function) {
 		if (function.ordinal() >= configuration.length - 1)
 			return 1;
 		
@@ -159,18 +240,27 @@ public class UnitSet {
 		return -1;
 	}
 
-	public void setConfiguration(int[][] configuration) {
+	private static void checkConfiguration(int[][] configuration) {
 		for (int i = 0; i < configuration.length; i++)
 			for (int j = 0; j < configuration[i].length; j++)
 				if (configuration[i][j] < 1)
 					throw new IllegalArgumentException("Invalid units' configuration");
+	}
+	
+	public void setConfiguration(int[][] configuration) {
+		checkConfiguration(configuration);
 
+		if (streaming && scheduler.getInstructions() > 0)
+			throw new IllegalArgumentException("Units can't be reconfigured after a streamed run");
+		
 		this.configuration = configuration;
+		if (streaming)
+			scheduler = new Scheduler(configuration, caches);
 		
-		for (Instruction instruction : executed) {
-			int time = getExecutionTime(instruction.getFunction());
+		for (int i = 0; i < executed; i++) {
+			int time = getExecutionTime(configuration, functionTypes[functions[i]]);
 			if (time != -1)
-				instruction.setExecutionTime(time);
+				executionTimes[i] = time;
 		}
 	}
 	
@@ -178,8 +268,155 @@ public class UnitSet {
 		return configuration;
 	}
 	
+	// The runs so far met the misses and miss registers of the caches being replaced, so they are cleared rather than
+	// rescheduled with the new ones, as a snapshot of other caches is
+	public void setCaches(int[][] caches) {
+		this.caches = caches;
+		clear();
+	}
+	
+	public int[][] getCaches() {
+		return caches;
+	}
+	
+	public void setStreaming(boolean streaming, String spillFile) {
+		closeSpill();
+		this.streaming = streaming;
+		this.spillFile = (streaming)? spillFile : null;
+		clear();
+	}
+	
+	public boolean isStreaming() {
+		return streaming;
+	}
+	
+	// PrintWriter keeps write errors to itself, so they are checked whenever the timings are flushed or closed. A file
+	// that failed is closed and no longer written to
+	public void flush() {
+		if (spill != null && spill.checkError())
+			closeSpill();
+	}
+	
+	private void closeSpill() {
+		if (spill == null)
+			return;
+		
+		spill.close();
+		boolean failed = spill.checkError();
+		spill = null;
+		if (failed)
+			throw new IllegalArgumentException("Can't write the timings file (" + spillFile + ")");
+	}
+	
+	// The timings file isn't part of the snapshot, a restored streamed run keeps spilling to the current one
+	public void save(Snapshot snapshot) {
+		snapshot.writeInt(configuration.length);
+		for (int[] row : configuration)
+			snapshot.writeInts(row, row.length);
+		snapshot.writeInt(caches.length);
+		for (int[] row : caches)
+			snapshot.writeInts(row, row.length);
+		
+		snapshot.writeInt((streaming)? 1 : 0);
+		if (streaming) {
+			scheduler.save(snapshot);
+			return;
+		}
+		
+		snapshot.writeInts(addresses, executed);
+		snapshot.writeInts(words, executed);
+		snapshot.writeBytes(functions, executed);
+		snapshot.writeBytes(destinations, executed);
+		snapshot.writeBytes(firstSources, executed);
+		snapshot.writeBytes(secondSources, executed);
+		snapshot.writeInts(effectiveAddresses, executed);
+		snapshot.writeInts(executionTimes, executed);
+		snapshot.writeBytes(levels, executed);
+		snapshot.writeBooleans(taken, executed);
+	}
+	
+	// The executed instructions are only taken back by units of the same configuration, caches and mode, others start
+	// empty
+	public void restore(Snapshot snapshot) {
+		int[][] saved = new int[snapshot.readInt()][];
+		for (int i = 0; i < saved.length; i++)
+			saved[i] = snapshot.readInts();
+		int[][] savedCaches = new int[snapshot.readInt()][];
+		for (int i = 0; i < savedCaches.length; i++) {
+			savedCaches[i] = snapshot.readInts();
+			if (savedCaches[i].length != 2 || savedCaches[i][0] < 1 || savedCaches[i][1] < 0)
+				throw new IllegalArgumentException("Invalid snapshot schedule");
+		}
+		
+		boolean compatible = Arrays.deepEquals(saved, configuration) && Arrays.deepEquals(savedCaches, caches);
+		if (snapshot.readInt() != 0) {
+			Scheduler restored = new Scheduler(saved, savedCaches);
+			restored.restore(snapshot);
+			compatible &= streaming;
+			if (compatible)
+				scheduler = restored;
+			else
+				clear();
+			return;
+		}
+		
+		int[][] columns = {snapshot.readInts(), snapshot.readInts()};
+		byte[][] bytes = {snapshot.readBytes(), snapshot.readBytes(), snapshot.readBytes(), snapshot.readBytes()};
+		int[][] results = {snapshot.readInts(), snapshot.readInts()};
+		byte[] served = snapshot.readBytes();
+		boolean[] branches = snapshot.readBooleans();
+		int length = columns[0].length;
+		if (columns[1].length != length || results[0].length != length || results[1].length != length || served.length != length || branches.length != length)
+			throw new IllegalArgumentException("Invalid snapshot schedule");
+		
+		for (byte[] column : bytes)
+			if (column.length != length)
+				throw new IllegalArgumentException("Invalid snapshot schedule");
+		
+		if (!compatible || streaming) {
+			clear();
+			return;
+		}
+		
+		executed = length;
+		int capacity = Math.max(64, executed);
+		addresses = Arrays.copyOf(columns[0], capacity);
+		words = Arrays.copyOf(columns[1], capacity);
+		functions = Arrays.copyOf(bytes[0], capacity);
+		destinations = Arrays.copyOf(bytes[1], capacity);
+		firstSources = Arrays.copyOf(bytes[2], capacity);
+		secondSources = Arrays.copyOf(bytes[3], capacity);
+		effectiveAddresses = Arrays.copyOf(results[0], capacity);
+		executionTimes = Arrays.copyOf(results[1], capacity);
+		levels = Arrays.copyOf(served, capacity);
+		taken = Arrays.copyOf(branches, capacity);
+	}
+	
 	public void clear() {
-		executed = new ArrayList<Instruction>();
+		closeSpill();
+		if (spillFile != null) {
+			try {
+				spill = new PrintWriter(new BufferedWriter(new FileWriter(spillFile)));
+			} catch (IOException ex) {
+				throw new IllegalArgumentException("Can't open the timings file (" + spillFile + ")");
+			}
+			spill.println("Instruction\tIssued\tExecuted\tWritten\tCommitted");
+		}
+		
+		if (streaming)
+			scheduler = new Scheduler(configuration, caches);
+		
+		executed = 0;
+		addresses = new int[64];
+		words = new int[64];
+		functions = new byte[64];
+		destinations = new byte[64];
+		firstSources = new byte[64];
+		secondSources = new byte[64];
+		effectiveAddresses = new int[64];
+		executionTimes = new int[64];
+		levels = new byte[64];
+		taken = new boolean[64];
 	}
 	
 }
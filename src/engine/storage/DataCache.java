@@ -1,26 +1,63 @@
 package engine.storage;
 
 import java.util.Arrays;
-import java.util.Map;
-import java.util.TreeMap;
 
 import engine.Helpers;
+import engine.Snapshot;
+import engine.types.AccessResult;
 import engine.types.Addressable;
-import engine.types.DataCacheEntry;
+import engine.types.PrefetchPolicy;
+import engine.types.ReplacementPolicy;
 import engine.types.WritePolicy;
 
 public class DataCache implements Addressable {
+	
+	// Sets at least this wide are probed through a line index instead of a scan of their ways
+	static final int INDEXED_ASSOCIATIVITY = 32;
+	static final int NO_TAG = -1;
 
 	private final int lineSize;
 	private final int numberOfLines;
 	private final int associativity;
+	private final int offsetBits;
+	private final int setBits;
 	private WritePolicy onHit;
 	private WritePolicy onMiss;
 	private int accesses;
 	private int accessTime;
 	private int hits;
-	private TreeMap<Integer, DataCacheEntry> cache;
+	private int evictions;
 	private Addressable nextLevel;
+	private ReplacementPolicy policy = ReplacementPolicy.FIFO;
+	private PrefetchPolicy prefetchPolicy = PrefetchPolicy.NONE;
+	private Prefetcher prefetcher;
+	private AccessResult prefetchResult = new AccessResult();
+	private int memorySize;
+	private int prefetches;
+	private int useful;
+	private int late;
+	private int useless;
+	
+	// Misses this level can have outstanding at once in the schedule. None leaves them unlimited, overlapping as far as
+	// the load reservation stations allow
+	private int missRegisters;
+	
+	// Cycles spent serving demand accesses, the clock that prefetched lines become ready by
+	private int time;
+	private boolean triggered;
+	
+	// Lines are stored by index (set * associativity + way), with their data laid out back to back. Invalid lines hold
+	// no tag, so that probes only compare tags
+	private int[] tags;
+	private Replacement replacement;
+	private LineIndex index;
+	private int[] filled;
+	private boolean[] valid;
+	private boolean[] dirty;
+	private boolean[] prefetched;
+	private int[] ready;
+	private byte[] lines;
+	private byte[] word = new byte[2];
 	
 	public DataCache(int lineSize, int numberOfLines, int associativity, int accessTime) {
 		if (lineSize < 2)
@@ -32,13 +69,22 @@ public class DataCache implements Addressable {
 		if (numberOfLines < 2)
 			throw new IllegalArgumentException("Cache lines must be more than 1");
 		
+		if (associativity < 1)
+			throw new IllegalArgumentException("Cache associativity (" + associativity + ") must be at least 1");
+		
 		if (associativity > numberOfLines)
 			throw new IllegalArgumentException("Cache associativity (" + associativity + ") cannot be greater than the lines (" + numberOfLines + ")");
 		
+		// Lines are found by shifting and masking the address, so the sets they make up must be a power of 2
+		if (numberOfLines % associativity != 0 || !Helpers.isPowerOf2(numberOfLines / associativity))
+			throw new IllegalArgumentException("Cache lines (" + numberOfLines + ") divided by the associativity (" + associativity + ") must give a power of 2 sets");
+		
 		this.lineSize = lineSize;
 		this.numberOfLines = numberOfLines;
 		this.associativity = associativity; 
 		this.accessTime = accessTime;
+		this.offsetBits = Integer.numberOfTrailingZeros(lineSize);
+		this.setBits = Integer.numberOfTrailingZeros(numberOfLines / associativity);
 		clear();
 	}
 	
@@ -53,6 +99,24 @@ public class DataCache implements Addressable {
 		this.onMiss = onMiss;
 	}
 	
+	// Lines already held keep their place but lose their replacement history
+	public void setReplacementPolicy(ReplacementPolicy policy) {
+		replacement = Replacement.create(policy, numberOfLines / associativity, associativity);
+		this.policy = policy;
+	}
+	
+	public void setPrefetchPolicy(PrefetchPolicy policy) {
+		prefetcher = Prefetcher.create(policy);
+		prefetchPolicy = policy;
+	}
+	
+	public void setMissRegisters(int missRegisters) {
+		if (missRegisters < 0)
+			throw new IllegalArgumentException("Invalid number of miss registers (" + missRegisters + ")");
+		
+		this.missRegisters = missRegisters;
+	}
+	
 	public void setNextCacheLevel(Addressable nextCacheLevel) {
 		if (nextCacheLevel instanceof DataCache) {
 			if (((DataCache) nextCacheLevel).lineSize < lineSize)
@@ -61,128 +125,256 @@ public class DataCache implements Addressable {
 			throw new IllegalArgumentException("Cache line size (" + lineSize + ") must be less than the memory size (" + ((Memory) nextCacheLevel).getSize() + ")");
 		
 		this.nextLevel = nextCacheLevel;
+		this.memorySize = (nextCacheLevel instanceof DataCache)? ((DataCache) nextCacheLevel).memorySize : ((Memory) nextCacheLevel).getSize();
 	}
 		
-	public byte[] getData(int address, int bytes) {
+	public short readWord(int address, AccessResult result) {
 		accesses++;
-		int offset = address % lineSize;
-		byte[] data = fetchLine(address).getData();
-		return Arrays.copyOfRange(data, offset, offset + bytes);
+		int cycles = result.getCycles();
+		result.addCycles(accessTime);
+		int start = fetchLine(address, result) * lineSize + (address & (lineSize - 1));
+		short value = (short)((lines[start] << 8) | (lines[start + 1] & 0xff));
+		finishAccess(address, cycles, result);
+		return value;
+	}
+	
+	public void writeWord(int address, short value, AccessResult result) {
+		word[0] = (byte)(value >> 8);
+		word[1] = (byte)value;
+		writeLine(address, word, 0, 2, result);
+	}
+	
+	public void readLine(int address, byte[] buffer, int offset, int bytes, AccessResult result) {
+		accesses++;
+		int cycles = result.getCycles();
+		result.addCycles(accessTime);
+		int start = fetchLine(address, result) * lineSize + (address & (lineSize - 1));
+		System.arraycopy(lines, start, buffer, offset, bytes);
+		finishAccess(address, cycles, result);
 	}
 
-	public void setData(int address, byte[] data) {
+	public void writeLine(int address, byte[] buffer, int offset, int bytes, AccessResult result) {
 		accesses++;
-		if (!isFound(address)){
-			writeToMemory(address, data);
-			removeLine(address);
-			if (onMiss == WritePolicy.WRITE_ALLOCATE)
-				fetchLine(address);
+		int cycles = result.getCycles();
+		result.addCycles(accessTime);
+		int line = findLine(address);
+		triggered = line == -1;
+		if (line == -1) {
+			writeAround(address, buffer, offset, bytes, result);
+			if (onMiss == WritePolicy.WRITE_ALLOCATE) {
+				int level = result.getLevel();
+				fillLine(address, result);
+				result.setLevel(level);
+			}
+			finishAccess(address, cycles, result);
 			return;
 		}
-		int offset = address % lineSize;
-		DataCacheEntry entry = fetchLine(address);
-		byte[] lineData = entry.getData();
-		for (int i = 0; i < data.length; i++)
-			lineData[offset + i] = data[i];
+		hits++;
+		replacement.hit(line);
+		triggered = firstUse(line, result);
+		System.arraycopy(buffer, offset, lines, line * lineSize + (address & (lineSize - 1)), bytes);
 		
 		if (onHit == WritePolicy.WRITE_BACK)
-			entry.setDirty();
-		else 
-			nextLevel.setData(address, data);
-	}
-		
-	private boolean isFound(int address) {
-		int tag = address / (lineSize * (numberOfLines / associativity));
-		int set = (address / lineSize) % (numberOfLines / associativity);
-		DataCacheEntry entry;
-		for (int i = 0; i < associativity; i++) {
-			entry = cache.get(set * associativity + i);
-			if (entry != null && entry.getTag() == tag)
-				return true;
+			dirty[line] = true;
+		else {
+			int level = result.getLevel();
+			nextLevel.writeLine(address, buffer, offset, bytes, result);
+			result.setLevel(level);
 		}
-		return false;
-	}
-	
-	private void removeLine(int address) {
-		int tag = address / (lineSize * (numberOfLines / associativity));
-		int set = (address / lineSize) % (numberOfLines / associativity);
-		DataCacheEntry entry = null;
-		for (int i = 0; i < associativity; i++) {
-			entry = cache.get(set * associativity + i);
-			if (entry != null && entry.getTag() == tag) {
-				cache.put(set * associativity + i, null);
-				break;
-			}
+		finishAccess(address, cycles, result);
+	}
+	
+	// The first demand use of a prefetched line waits for the rest of its fill when it isn't ready yet
+	private boolean firstUse(int line, AccessResult result) {
+		if (!prefetched[line])
+			return false;
+		
+		prefetched[line] = false;
+		if (time < ready[line]) {
+			late++;
+			result.addCycles(ready[line] - time);
+		} else
+			useful++;
+		return true;
+	}
+	
+	// Advances the clock by the cycles the access took from this level down, then shows it to the prefetcher
+	private void finishAccess(int address, int cycles, AccessResult result) {
+		time += result.getCycles() - cycles;
+		if (prefetcher != null)
+			prefetcher.access(this, result.getPc(), address, address >>> offsetBits, triggered);
+	}
+	
+	// Fills the line holding the address ahead of demand, unless it is already held or lies outside memory. The fill
+	// isn't charged to any access, it is ready once the clock passes the cycles it took
+	void prefetch(int address) {
+		if (address < 0 || address >= memorySize || findLine(address) != -1)
+			return;
+		
+		prefetchResult.clear();
+		int line = fillLine(address, prefetchResult);
+		prefetched[line] = true;
+		ready[line] = time + prefetchResult.getCycles();
+		prefetches++;
+	}
+	
+	void prefetchLine(int line) {
+		if (line >= 0 && line < memorySize >>> offsetBits)
+			prefetch(line << offsetBits);
+	}
+	
+	private int tagOf(int address) {
+		return address >>> (offsetBits + setBits);
+	}
+	
+	private int setOf(int address) {
+		return (address >>> offsetBits) & ((1 << setBits) - 1);
+	}
+	
+	private int findLine(int address) {
+		if (index != null)
+			return index.find(address >>> offsetBits);
+		
+		int tag = tagOf(address);
+		int first = setOf(address) * associativity;
+		// Branch-free, so the JIT emits conditional moves. An IntVector compare (TagCompareBenchmark) only catches up
+		// at 16 ways, and wider sets go through the index, which isn't worth the incubating Vector API and the
+		// --add-modules it needs at every launch
+		int line = -1;
+		for (int way = first + associativity - 1; way >= first; way--)
+			line = (tags[way] == tag)? way : line;
+		return line;
+	}
+	
+	// Store misses go straight to memory, dropping any stale copy held by the levels in between
+	private void writeAround(int address, byte[] buffer, int offset, int bytes, AccessResult result) {
+		Addressable level = nextLevel;
+		result.miss();
+		while (level instanceof DataCache) {
+			DataCache cache = (DataCache) level;
+			int line = cache.findLine(address);
+			if (line != -1)
+				cache.invalidate(line);
+			level = cache.nextLevel;
+			result.miss();
 		}
-		if (nextLevel instanceof DataCache)
-			((DataCache) nextLevel).removeLine(address);
-	}
-	
-	private DataCacheEntry fetchLine(int address) {
-		int tag = address / (lineSize * (numberOfLines / associativity));
-		int set = (address / lineSize) % (numberOfLines / associativity);
-		int offset = address % lineSize;
-		
-		int index = 0, oldest = 0;
-		DataCacheEntry entry = null;
-		for (int i = 0; i < associativity; i++) {
-			entry = cache.get(set * associativity + i);
-			if (entry == null) {
-				index = i;
-				break;
-			}
-			if (entry.getTag() == tag) {
-				hits++;
-				return entry;
-			}
-			if (i == 0 || oldest > entry.getAge()) {
-				index = i;
-				oldest = entry.getAge();
+		((Memory) level).writeLine(address, buffer, offset, bytes, result);
+	}
+	
+	private void invalidate(int line) {
+		if (index != null)
+			index.remove(lineAddress(line) >>> offsetBits);
+		if (prefetched[line]) {
+			prefetched[line] = false;
+			useless++;
+		}
+		tags[line] = NO_TAG;
+		valid[line] = false;
+		filled[line / associativity]--;
+	}
+	
+	private int fetchLine(int address, AccessResult result) {
+		int line = findLine(address);
+		triggered = line == -1;
+		if (line != -1) {
+			hits++;
+			replacement.hit(line);
+			triggered = firstUse(line, result);
+			return line;
+		}
+		result.miss();
+		return fillLine(address, result);
+	}
+	
+	private int fillLine(int address, AccessResult result) {
+		int set = setOf(address);
+		int first = set * associativity;
+		int line = -1;
+		if (filled[set] < associativity)
+			for (int i = first; i < first + associativity; i++)
+				if (!valid[i]) {
+					line = i;
+					filled[set]++;
+					break;
+				}
+		
+		if (line == -1) {
+			line = replacement.victim(first);
+			evictions++;
+			if (prefetched[line]) {
+				prefetched[line] = false;
+				useless++;
 			}
 		}
 		
-		entry = cache.get(set * associativity + index);
-		if (onHit == WritePolicy.WRITE_BACK && entry != null && entry.isDirty())
-			nextLevel.setData(entry.getDataAddress(), entry.getData());
+		// Write backs aren't made by the access's instruction, so they don't show its pc to the prefetchers below
+		if (onHit == WritePolicy.WRITE_BACK && valid[line] && dirty[line]) {
+			int level = result.getLevel();
+			int pc = result.getPc();
+			result.setPc(-1);
+			nextLevel.writeLine(lineAddress(line), lines, line * lineSize, lineSize, result);
+			result.setLevel(level);
+			result.setPc(pc);
+			result.setWriteBack();
+		}
 		
-		byte[] data = nextLevel.getData(address - offset, lineSize);
-		entry = new DataCacheEntry(tag, data, address - offset, accesses);
-		cache.put(set * associativity + index, entry);
-		return entry;
-	}
+		if (index != null) {
+			if (valid[line])
+				index.remove(lineAddress(line) >>> offsetBits);
+			index.put(address >>> offsetBits, line);
+		}
 		
-	private void writeToMemory(int address, byte[] data) {
-		if (nextLevel instanceof DataCache)
-			((DataCache) nextLevel).writeToMemory(address, data);
-		else 
-			((Memory) nextLevel).setData(address, data);
+		nextLevel.readLine(address & -lineSize, lines, line * lineSize, lineSize, result);
+		tags[line] = tagOf(address);
+		replacement.fill(line);
+		valid[line] = true;
+		dirty[line] = false;
+		return line;
 	}
 	
+	private int lineAddress(int line) {
+		return (tags[line] << (offsetBits + setBits)) | ((line / associativity) << offsetBits);
+	}
+		
 	public Object[] displayData(boolean hex) {
+		int length = 0;
+		for (int line = 0; line < valid.length; line++)
+			if (valid[line])
+				length++;
+		
 		String[] headers;
 		String[][] data;
 		if (onHit == WritePolicy.WRITE_BACK) {
 			headers = new String[]{"Index", "Tag", "Dirty", "Data"}; 
-			data = new String[cache.size()][4];
+			data = new String[length][4];
 		} else {
 			headers = new String[]{"Index", "Tag", "Data"}; 
-			data = new String[cache.size()][3];
+			data = new String[length][3];
 		}
 		
 		int i = 0;
-		for (Map.Entry<Integer, DataCacheEntry> entry : cache.entrySet()) {
-			data[i][0] = entry.getKey().toString();
-			data[i][1] = entry.getValue().getTag() + "";
+		for (int line = 0; line < valid.length; line++) {
+			if (!valid[line])
+				continue;
+			byte[] lineData = Arrays.copyOfRange(lines, line * lineSize, (line + 1) * lineSize);
+			data[i][0] = line + "";
+			data[i][1] = tags[line] + "";
 			if (onHit == WritePolicy.WRITE_BACK) {
-				data[i][2] = entry.getValue().isDirty() + "";
-				data[i][3] = bytesToString(entry.getValue().getData(), hex);
+				data[i][2] = dirty[line] + "";
+				data[i][3] = bytesToString(lineData, hex);
 			} else {
-				data[i][2] = bytesToString(entry.getValue().getData(), hex);
+				data[i][2] = bytesToString(lineData, hex);
 			}
 			i++;
 		}
 		double hitRatio = (accesses == 0)? 0 : (hits * 100.0) / accesses;
 		String data2 = String.format("%-10s: %d\n%-10s: %d\n%-10s: %.2f","Accesses", accesses, "Hits", hits, "Hit ratio", hitRatio) + "%";
+		data2 += String.format("\n%-10s: %d\n%-10s: %s", "Evictions", evictions, "Policy", policy);
+		if (prefetcher != null)
+			data2 += String.format("\n%-10s: %s\n%-10s: %d\n%-10s: %d\n%-10s: %d\n%-10s: %d", "Prefetcher", prefetchPolicy,
+					"Prefetches", prefetches, "Useful", useful, "Late", late, "Useless", useless);
+		if (missRegisters > 0)
+			data2 += String.format("\n%-10s: %d", "MSHRs", missRegisters);
 		return new Object[]{data, headers, data2};
 	}
 	
@@ -194,6 +386,122 @@ public class DataCache implements Addressable {
 		return array + "]";
 	}
 		
+	// Writes every dirty line to the next level and empties the cache
+	public void flush() {
+		AccessResult result = new AccessResult();
+		for (int line = 0; line < valid.length; line++)
+			if (valid[line] && dirty[line])
+				nextLevel.writeLine(lineAddress(line), lines, line * lineSize, lineSize, result);
+		
+		Arrays.fill(tags, NO_TAG);
+		Arrays.fill(valid, false);
+		Arrays.fill(dirty, false);
+		Arrays.fill(prefetched, false);
+		Arrays.fill(filled, 0);
+		if (index != null)
+			index.clear();
+	}
+	
+	public void resetStatistics() {
+		accesses = 0;
+		hits = 0;
+		evictions = 0;
+		prefetches = 0;
+		useful = 0;
+		late = 0;
+		useless = 0;
+	}
+	
+	public void save(Snapshot snapshot) {
+		snapshot.writeInt(lineSize);
+		snapshot.writeInt(numberOfLines);
+		snapshot.writeInt(associativity);
+		snapshot.writeInt(onHit.ordinal());
+		snapshot.writeInt(policy.ordinal());
+		snapshot.writeInt(accesses);
+		snapshot.writeInt(hits);
+		snapshot.writeInt(evictions);
+		snapshot.writeInts(tags, tags.length);
+		replacement.save(snapshot);
+		snapshot.writeBooleans(valid, valid.length);
+		snapshot.writeBooleans(dirty, dirty.length);
+		snapshot.writeBytes(lines, lines.length);
+	}
+	
+	// Restores a saved cache into the given level. A cache of the same geometry and policies takes the saved state,
+	// anything else is emptied and only receives the saved dirty lines, so that no written data is lost
+	public static void restore(Snapshot snapshot, Addressable level) {
+		int lineSize = snapshot.readInt();
+		int numberOfLines = snapshot.readInt();
+		int associativity = snapshot.readInt();
+		int onHit = snapshot.readInt();
+		int policy = snapshot.readInt();
+		int accesses = snapshot.readInt();
+		int hits = snapshot.readInt();
+		int evictions = snapshot.readInt();
+		int[] tags = snapshot.readInts();
+		if (!Helpers.isPowerOf2(lineSize) || associativity < 1 || numberOfLines < associativity || policy < 0 || policy >= ReplacementPolicy.values().length)
+			throw new IllegalArgumentException("Invalid snapshot cache");
+		
+		Replacement replacement = Replacement.create(ReplacementPolicy.values()[policy], numberOfLines / associativity, associativity);
+		replacement.restore(snapshot);
+		boolean[] valid = snapshot.readBooleans();
+		boolean[] dirty = snapshot.readBooleans();
+		byte[] lines = snapshot.readBytes();
+		if (valid.length != tags.length || dirty.length != tags.length || lines.length != tags.length * lineSize)
+			throw new IllegalArgumentException("Invalid snapshot cache");
+		
+		DataCache cache = (level instanceof DataCache)? (DataCache) level : null;
+		if (cache != null && cache.lineSize == lineSize && cache.numberOfLines == numberOfLines && cache.associativity == associativity
+				&& cache.onHit.ordinal() == onHit && cache.policy.ordinal() == policy && cache.tags.length == tags.length) {
+			cache.accesses = accesses;
+			cache.hits = hits;
+			cache.evictions = evictions;
+			cache.tags = tags;
+			cache.replacement = replacement;
+			cache.valid = valid;
+			cache.dirty = dirty;
+			cache.lines = lines;
+			cache.recount();
+			return;
+		}
+		
+		if (cache != null)
+			cache.clear();
+		
+		int offsetBits = Integer.numberOfTrailingZeros(lineSize);
+		int setBits = Integer.numberOfTrailingZeros(numberOfLines / associativity);
+		int chunk = (cache == null)? lineSize : Math.min(lineSize, cache.lineSize);
+		AccessResult result = new AccessResult();
+		for (int line = 0; line < tags.length; line++) {
+			if (!valid[line] || !dirty[line])
+				continue;
+			int address = (tags[line] << (offsetBits + setBits)) | ((line / associativity) << offsetBits);
+			for (int offset = 0; offset < lineSize; offset += chunk)
+				level.writeLine(address + offset, lines, line * lineSize + offset, chunk, result);
+		}
+		
+		if (cache != null)
+			cache.resetStatistics();
+	}
+	
+	// Rebuilds the lines held per set and the line index from restored lines, which all count as demand fetched
+	private void recount() {
+		Arrays.fill(filled, 0);
+		Arrays.fill(prefetched, false);
+		if (index != null)
+			index.clear();
+		
+		for (int line = 0; line < valid.length; line++)
+			if (!valid[line])
+				tags[line] = NO_TAG;
+			else {
+				filled[line / associativity]++;
+				if (index != null)
+					index.put(lineAddress(line) >>> offsetBits, line);
+			}
+	}
+	
 	public int getHits() {
 		return hits;
 	}
@@ -202,6 +510,42 @@ public class DataCache implements Addressable {
 		return accesses;
 	}
 	
+	public int getEvictions() {
+		return evictions;
+	}
+	
+	public ReplacementPolicy getReplacementPolicy() {
+		return policy;
+	}
+	
+	public PrefetchPolicy getPrefetchPolicy() {
+		return prefetchPolicy;
+	}
+	
+	public int getMissRegisters() {
+		return missRegisters;
+	}
+	
+	public int getPrefetches() {
+		return prefetches;
+	}
+	
+	public int getUsefulPrefetches() {
+		return useful;
+	}
+	
+	public int getLatePrefetches() {
+		return late;
+	}
+	
+	public int getUselessPrefetches() {
+		return useless;
+	}
+	
+	public int getLineSize() {
+		return lineSize;
+	}
+	
 	public int getAccessTime() {
 		return accessTime;
 	}
@@ -209,7 +553,23 @@ public class DataCache implements Addressable {
 	public void clear() {
 		accesses = 0;
 		hits = 0;
-		cache = new TreeMap<Integer, DataCacheEntry>();
+		evictions = 0;
+		prefetches = 0;
+		useful = 0;
+		late = 0;
+		useless = 0;
+		time = 0;
+		int slots = (numberOfLines / associativity) * associativity;
+		tags = new int[slots];
+		Arrays.fill(tags, NO_TAG);
+		replacement = Replacement.create(policy, numberOfLines / associativity, associativity);
+		index = (associativity >= INDEXED_ASSOCIATIVITY)? new LineIndex(slots) : null;
+		filled = new int[numberOfLines / associativity];
+		valid = new boolean[slots];
+		dirty = new boolean[slots];
+		prefetched = new boolean[slots];
+		ready = new int[slots];
+		lines = new byte[slots * lineSize];
 	}
 	
 }
@@ -1,22 +1,34 @@
 package engine.storage;
 
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import engine.Helpers;
+import engine.Snapshot;
 import engine.types.Instruction;
-import engine.types.InstructionCacheEntry;
+import engine.types.ReplacementPolicy;
 
 public class InstructionCache {
 	
 	private final int lineSize;
 	private final int numberOfLines;
 	private final int associativity;
+	private final int offsetBits;
+	private final int setBits;
 	private int accesses;
 	private int accessTime;
 	private int hits;
-	private TreeMap<Integer, InstructionCacheEntry> cache;
+	private int evictions;
 	private Memory memory;
+	private ReplacementPolicy policy = ReplacementPolicy.FIFO;
+	
+	// Lines are stored by index (set * associativity + way), with their instructions laid out back to back. Invalid
+	// lines hold no tag, and are only found at the end of their set
+	private int[] tags;
+	private Replacement replacement;
+	private LineIndex index;
+	private int[] filled;
+	private boolean[] valid;
+	private int[] lines;
 	
 	public InstructionCache(int lineSize, int numberOfLines, int associativity, int accessTime, Memory memory) {
 		if (lineSize < 2)
@@ -28,9 +40,16 @@ public class InstructionCache {
 		if (numberOfLines < 2)
 			throw new IllegalArgumentException("Cache lines must be more than 1");
 		
+		if (associativity < 1)
+			throw new IllegalArgumentException("Cache associativity (" + associativity + ") must be at least 1");
+		
 		if (associativity > numberOfLines)
 			throw new IllegalArgumentException("Cache associativity (" + associativity + ") cannot be greater than the lines (" + numberOfLines + ")");
 		
+		// Lines are found by shifting and masking the address, so the sets they make up must be a power of 2
+		if (numberOfLines % associativity != 0 || !Helpers.isPowerOf2(numberOfLines / associativity))
+			throw new IllegalArgumentException("Cache lines (" + numberOfLines + ") divided by the associativity (" + associativity + ") must give a power of 2 sets");
+		
 		if (memory.getSize() < lineSize)
 			throw new IllegalArgumentException("Cache line size (" + lineSize + ") must be less than the memory size (" + memory.getSize() + ")");
 		
@@ -40,66 +59,156 @@ public class InstructionCache {
 		this.associativity = associativity;
 		this.accessTime = accessTime;
 		this.memory = memory;
+		this.offsetBits = Integer.numberOfTrailingZeros(lineSize);
+		this.setBits = Integer.numberOfTrailingZeros(numberOfLines / associativity);
 		clear();
 	}
 	
-	private InstructionCacheEntry fetchLine(int address) {
+	// Lines already held keep their place but lose their replacement history
+	public void setReplacementPolicy(ReplacementPolicy policy) {
+		replacement = Replacement.create(policy, numberOfLines / associativity, associativity);
+		this.policy = policy;
+	}
+	
+	private int fetchLine(int address) {
 		accesses++;
-		int tag = address / (lineSize * (numberOfLines / associativity));
-		int set = (address / lineSize) % (numberOfLines / associativity);
-		int offset = address % lineSize;
+		int tag = address >>> (offsetBits + setBits);
+		int set = (address >>> offsetBits) & ((1 << setBits) - 1);
+		int first = set * associativity;
+		int line = -1;
+		if (index != null)
+			line = index.find(address >>> offsetBits);
+		else
+			for (int way = first + associativity - 1; way >= first; way--)
+				line = (tags[way] == tag)? way : line;
 		
-		int index = 0, oldest = 0;
-		InstructionCacheEntry entry = null;
-		for (int i = 0; i < associativity; i++) {
-			entry = cache.get(set * associativity + i);
-			if (entry == null) {
-				index = i;
-				break;
-			} else if (entry.getTag() == tag) {
-				hits++;
-				return entry;
-			}
-			if (i == 0 || oldest > entry.getAge()) {
-				index = i;
-				oldest = entry.getAge();
-			}
+		if (line != -1) {
+			hits++;
+			replacement.hit(line);
+			return line;
 		}
 		
-		Instruction[] instructions = memory.getInstructions(address - offset, lineSize / 2);
-		entry = new InstructionCacheEntry(tag, instructions, accesses);
-		cache.put(set * associativity + index, entry);
-		return entry;
+		if (filled[set] < associativity)
+			line = first + filled[set]++;
+		else {
+			line = replacement.victim(first);
+			evictions++;
+		}
+		
+		if (index != null) {
+			if (valid[line])
+				index.remove((tags[line] << setBits) | (line / associativity));
+			index.put(address >>> offsetBits, line);
+		}
+		
+		int words = lineSize / 2;
+		memory.getInstructions(address & -lineSize, lines, line * words, words);
+		tags[line] = tag;
+		replacement.fill(line);
+		valid[line] = true;
+		return line;
 	}
 	
-	public Instruction getInstruction(int address) {
-		int offset = address % lineSize;
-		return fetchLine(address).getInstructions()[offset / 2];
+	public int getInstruction(int address) {
+		int line = fetchLine(address);
+		return lines[line * (lineSize / 2) + (address & (lineSize - 1)) / 2];
 	}
 	
 	public Object[] displayData() {
+		int length = 0;
+		for (int line = 0; line < valid.length; line++)
+			if (valid[line])
+				length++;
+		
 		String[] headers = {"Index", "Tag", "Data"}; 
-		String[][] data = new String[cache.size()][3];
+		String[][] data = new String[length][3];
 		int i = 0;
-		for (Map.Entry<Integer, InstructionCacheEntry> entry : cache.entrySet()) {
-			data[i][0] = entry.getKey().toString();
-			data[i][1] = entry.getValue().getTag() + "";
-			data[i][2] = instructionsToString(entry.getValue().getInstructions());
+		for (int line = 0; line < valid.length; line++) {
+			if (!valid[line])
+				continue;
+			data[i][0] = line + "";
+			data[i][1] = tags[line] + "";
+			data[i][2] = instructionsToString(lines, line * (lineSize / 2), lineSize / 2);
 			i++;
 		}
 		double hitRatio = (accesses == 0)? 0 : (hits * 100.0) / accesses;
 		String data2 = String.format("%-10s: %d\n%-10s: %d\n%-10s: %.2f","Accesses", accesses, "Hits", hits, "Hit ratio", hitRatio) + "%";
+		data2 += String.format("\n%-10s: %d\n%-10s: %s", "Evictions", evictions, "Policy", policy);
 		return new Object[]{data, headers, data2};
 	}
 	
-	private static String instructionsToString(Instruction[] instructions) {
+	private static String instructionsToString(int[] instructions, int offset, int length) {
 		String array = "";
-		for (int i = 0; i < instructions.length; i++) {
-			array += "[" + ((instructions[i] == null)? "-" : instructions[i].format(1, 1)) + "]";
+		for (int i = offset; i < offset + length; i++) {
+			array += "[" + ((instructions[i] == Instruction.NONE)? "-" : new Instruction(0, instructions[i]).format(1, 1)) + "]";
 		}
 		return array;
 	}
 	
+	public void resetStatistics() {
+		accesses = 0;
+		hits = 0;
+		evictions = 0;
+	}
+	
+	public void save(Snapshot snapshot) {
+		snapshot.writeInt(lineSize);
+		snapshot.writeInt(numberOfLines);
+		snapshot.writeInt(associativity);
+		snapshot.writeInt(policy.ordinal());
+		snapshot.writeInt(accesses);
+		snapshot.writeInt(hits);
+		snapshot.writeInt(evictions);
+		snapshot.writeInts(tags, tags.length);
+		replacement.save(snapshot);
+		snapshot.writeBooleans(valid, valid.length);
+		snapshot.writeInts(lines, lines.length);
+	}
+	
+	// A cache of another geometry or policy can't take the saved lines and starts empty
+	public void restore(Snapshot snapshot) {
+		int lineSize = snapshot.readInt();
+		int numberOfLines = snapshot.readInt();
+		int associativity = snapshot.readInt();
+		int policy = snapshot.readInt();
+		int accesses = snapshot.readInt();
+		int hits = snapshot.readInt();
+		int evictions = snapshot.readInt();
+		int[] tags = snapshot.readInts();
+		if (associativity < 1 || numberOfLines < associativity || policy < 0 || policy >= ReplacementPolicy.values().length)
+			throw new IllegalArgumentException("Invalid snapshot cache");
+		
+		Replacement replacement = Replacement.create(ReplacementPolicy.values()[policy], numberOfLines / associativity, associativity);
+		replacement.restore(snapshot);
+		boolean compatible = lineSize == this.lineSize && numberOfLines == this.numberOfLines && associativity == this.associativity
+				&& policy == this.policy.ordinal();
+		boolean[] valid = snapshot.readBooleans();
+		int[] lines = snapshot.readInts();
+		if (!compatible || tags.length != this.tags.length || lines.length != this.lines.length) {
+			clear();
+			return;
+		}
+		
+		this.accesses = accesses;
+		this.hits = hits;
+		this.evictions = evictions;
+		this.tags = tags;
+		this.replacement = replacement;
+		this.valid = valid;
+		this.lines = lines;
+		filled = new int[filled.length];
+		if (index != null)
+			index.clear();
+		for (int line = 0; line < valid.length; line++)
+			if (!valid[line])
+				tags[line] = DataCache.NO_TAG;
+			else {
+				filled[line / associativity]++;
+				if (index != null)
+					index.put((tags[line] << setBits) | (line / associativity), line);
+			}
+	}
+	
 	public int getHits() {
 		return hits;
 	}
@@ -108,6 +217,14 @@ public class InstructionCache {
 		return accesses;
 	}
 	
+	public int getEvictions() {
+		return evictions;
+	}
+	
+	public ReplacementPolicy getReplacementPolicy() {
+		return policy;
+	}
+	
 	public int getAccessTime() {
 		return accessTime;
 	}
@@ -115,6 +232,14 @@ public class InstructionCache {
 	public void clear() {
 		accesses = 0;
 		hits = 0;
-		cache = new TreeMap<Integer, InstructionCacheEntry>();
+		evictions = 0;
+		int slots = (numberOfLines / associativity) * associativity;
+		tags = new int[slots];
+		Arrays.fill(tags, DataCache.NO_TAG);
+		replacement = Replacement.create(policy, numberOfLines / associativity, associativity);
+		index = (associativity >= DataCache.INDEXED_ASSOCIATIVITY)? new LineIndex(slots) : null;
+		filled = new int[numberOfLines / associativity];
+		valid = new boolean[slots];
+		lines = new int[slots * (lineSize / 2)];
 	}
 }
@@ -0,0 +1,66 @@
+package engine.storage;
+
+import java.util.Arrays;
+
+// Open addressing map from line numbers (address / line size) to the cache lines holding them, with linear probing
+// and backward shift deletion so that evictions leave no tombstones behind
+class LineIndex {
+	
+	private int[] keys;
+	private int[] values;
+	private int mask;
+	
+	public LineIndex(int lines) {
+		int capacity = Integer.highestOneBit(Math.max(lines, 2) * 2 - 1) * 2;
+		keys = new int[capacity];
+		values = new int[capacity];
+		mask = capacity - 1;
+		Arrays.fill(keys, -1);
+	}
+	
+	public int find(int key) {
+		for (int slot = hash(key) & mask; keys[slot] != -1; slot = (slot + 1) & mask)
+			if (keys[slot] == key)
+				return values[slot];
+		
+		return -1;
+	}
+	
+	public void put(int key, int value) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != -1 && keys[slot] != key)
+			slot = (slot + 1) & mask;
+		keys[slot] = key;
+		values[slot] = value;
+	}
+	
+	public void remove(int key) {
+		int slot = hash(key) & mask;
+		while (keys[slot] != key) {
+			if (keys[slot] == -1)
+				return;
+			slot = (slot + 1) & mask;
+		}
+		
+		// Entries further along the run move back into the hole unless their home slot lies after it
+		for (int next = (slot + 1) & mask; keys[next] != -1; next = (next + 1) & mask) {
+			int home = hash(keys[next]) & mask;
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				keys[slot] = keys[next];
+				values[slot] = values[next];
+				slot = next;
+			}
+		}
+		keys[slot] = -1;
+	}
+	
+	public void clear() {
+		Arrays.fill(keys, -1);
+	}
+	
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	
+}
@@ -1,23 +1,28 @@
 package engine.storage;
 
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.Arrays;
 
 import engine.Helpers;
+import engine.Snapshot;
+import engine.types.AccessResult;
 import engine.types.Addressable;
 import engine.types.Instruction;
 
 public class Memory implements Addressable {
 	
+	// Data is kept in fixed size pages that are only allocated once written
+	private static final int PAGE_BITS = 12;
+	
 	private final int size;
 	private final int instructionsStartAddress;
 	private final int dataStartAddress;
 	private int instructionAccesses;
 	private int dataAccesses;
 	private int accessTime;
-	private TreeMap<Integer, Byte> memory;
-	private ArrayList<Instruction> instructions;
+	private int pageSize;
+	private byte[][] pages;
+	private int[] instructions;
+	private int instructionCount;
 	
 	public Memory(int size, int instructionsStartAddress, int dataStartAddress, int accessTime) {
 		if (size < 128 || size > 4194304)
@@ -32,78 +37,128 @@ public class Memory implements Addressable {
 			this.dataStartAddress = dataStartAddress;
 			this.size = size;
 			this.accessTime = accessTime;
+			this.pageSize = Math.min(size, 1 << PAGE_BITS);
 		} else 
 			throw new IllegalArgumentException("Invalid memory configuration");
 		
 		clear();
 	}
 
-	public void addInstruction(String operation, Object[] operands) {
-		int address = instructionsStartAddress + instructions.size() * 2;
+	public void addInstruction(int word) {
+		int address = instructionsStartAddress + instructionCount * 2;
 		if (address >= dataStartAddress)
 			throw new IllegalArgumentException("No enough space for the instructions");
 		
-		instructions.add(new Instruction(address, operation, operands));
+		if (instructionCount == instructions.length)
+			instructions = Arrays.copyOf(instructions, instructions.length * 2);
+		
+		instructions[instructionCount++] = word;
 	}
 	
-	public Instruction[] getInstructions(int address, int number) {
+	public void getInstructions(int address, int[] words, int offset, int number) {
 		if (address % 2 != 0 || address < 0 || address + number * 2 >= size) 
 			throw new IllegalArgumentException("Invalid instruction address (" + address + ")");
 		
 		instructionAccesses++;
-		Instruction[] ins = new Instruction[number];
-		int index;
-		for (int i = 0; i < number; i++) {
-			index = (address - instructionsStartAddress) / 2 + i;
-			ins[i] = (index < 0 || index >= instructions.size())? null : instructions.get(index);
-		}
-		return ins;
+		for (int i = 0; i < number; i++)
+			words[offset + i] = getInstructionWord(address + i * 2);
+	}
+	
+	public int getInstructionWord(int address) {
+		int index = (address - instructionsStartAddress) / 2;
+		return (index < 0 || index >= instructionCount)? Instruction.NONE : instructions[index];
+	}
+	
+	public void setInstructionWord(int address, int word) {
+		if (!isInstructionAddress(address) || address > getLastInstructionAddress())
+			throw new IllegalArgumentException("Invalid instruction address (" + address + ")");
+		
+		instructions[(address - instructionsStartAddress) / 2] = word;
+	}
+	
+	public Instruction getInstruction(int address) {
+		int word = getInstructionWord(address);
+		return (word == Instruction.NONE)? null : new Instruction(address, word);
 	}
 	
 	public void setByte(int address, byte data) {
 		if (address < 0 || address >= size)
 			throw new IllegalArgumentException("Invalid address (" + address + ")");
-			
-		memory.put(address, data);
+		
+		page(address >> PAGE_BITS)[address & (pageSize - 1)] = data;
 	}
 	
 	public byte getByte(int address) {
 		if (address < 0 || address >= size)
 			throw new IllegalArgumentException("Invalid address (" + address + ")");
 		
-		Byte data = memory.get(address);
-		return (data == null)? 0 : data;
+		byte[] page = pages[address >> PAGE_BITS];
+		return (page == null)? 0 : page[address & (pageSize - 1)];
+	}
+	
+	private byte[] page(int number) {
+		if (pages[number] == null)
+			pages[number] = new byte[pageSize];
+		
+		return pages[number];
 	}
 	
 	public void setWord(int address, short data) {
 		if (address % 2 != 0) 
 			throw new IllegalArgumentException("Invalid word address (" + address + ")");
 		
-		byte[] bytes = Helpers.toBytes(data);
-		setByte(address, bytes[0]);
-		setByte(address + 1, bytes[1]);
+		setByte(address, (byte)(data >> 8));
+		setByte(address + 1, (byte)data);
 	}
 	
 	public short getWord(int address) {
 		if (address % 2 != 0) 
 			throw new IllegalArgumentException("Invalid word address (" + address + ")");
 		
-		return Helpers.toWord(new byte[]{getByte(address), getByte(address + 1)});
+		return (short)((getByte(address) << 8) | (getByte(address + 1) & 0xff));
 	}
 	
-	public byte[] getData(int address, int bytes) {
+	public short readWord(int address, AccessResult result) {
 		dataAccesses++;
-		byte[] data = new byte[bytes];
-		for (int i = 0; i < data.length; i++) {
-			data[i] = getByte(address + i);
-		}
-		return data;
+		result.addCycles(accessTime);
+		return getWord(address);
+	}
+	
+	public void writeWord(int address, short value, AccessResult result) {
+		dataAccesses++;
+		result.addCycles(accessTime);
+		setWord(address, value);
+	}
+	
+	public void readLine(int address, byte[] buffer, int offset, int bytes, AccessResult result) {
+		dataAccesses++;
+		result.addCycles(accessTime);
+		copy(address, buffer, offset, bytes, false);
 	}
 	
-	public void setData(int address, byte[] data) {
+	public void writeLine(int address, byte[] buffer, int offset, int bytes, AccessResult result) {
 		dataAccesses++;
-		for (int i = 0; i < data.length; i++)
-			setByte(address + i, data[i]);
+		result.addCycles(accessTime);
+		copy(address, buffer, offset, bytes, true);
+	}
+	
+	private void copy(int address, byte[] data, int offset, int bytes, boolean write) {
+		int valid = (address < 0)? 0 : Math.max(0, Math.min(bytes, size - address));
+		for (int done = 0; done < valid; ) {
+			int current = address + done;
+			int pageOffset = current & (pageSize - 1);
+			int length = Math.min(valid - done, pageSize - pageOffset);
+			if (write)
+				System.arraycopy(data, offset + done, page(current >> PAGE_BITS), pageOffset, length);
+			else if (pages[current >> PAGE_BITS] != null)
+				System.arraycopy(pages[current >> PAGE_BITS], pageOffset, data, offset + done, length);
+			else
+				Arrays.fill(data, offset + done, offset + done + length, (byte)0);
+			done += length;
+		}
+		
+		if (valid < bytes)
+			throw new IllegalArgumentException("Invalid address (" + (address + valid) + ")");
 	}
 	
 	public Object[] displayDataBytes(boolean hex) {
@@ -111,18 +166,24 @@ public class Memory implements Addressable {
 		String[] headers = {"Address", "Byte"}; 
 		
 		int length = 0;
-		for (Map.Entry<Integer, Byte> entry : memory.entrySet())
-			if (entry.getValue() != 0)
-				length++;
+		for (byte[] page : pages)
+			if (page != null)
+				for (byte b : page)
+					if (b != 0)
+						length++;
 		
 		String[][] data = new String[length][2];
 		int i = 0;
-		for (Map.Entry<Integer, Byte> entry : memory.entrySet()) {
-			if (entry.getValue() == 0)
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null)
 				continue;
-			data[i][0] = String.format((hex)? "0x%0" + bits + "X" : "%d", entry.getKey());
-			data[i][1] = String.format((hex)? "0x%02X" : "%d", entry.getValue());
-			i++;
+			for (int j = 0; j < pageSize; j++) {
+				if (pages[p][j] == 0)
+					continue;
+				data[i][0] = String.format((hex)? "0x%0" + bits + "X" : "%d", (p << PAGE_BITS) + j);
+				data[i][1] = String.format((hex)? "0x%02X" : "%d", pages[p][j]);
+				i++;
+			}
 		}
 		String accesses = String.format("%-20s : %d\n%-20s : %d", "Instruction accesses", instructionAccesses, "Data accesses", dataAccesses);
 		return new Object[]{data, headers, accesses};
@@ -133,18 +194,25 @@ public class Memory implements Addressable {
 		String[] headers = {"Address", "Word"}; 
 		
 		int length = 0;
-		for (int a : memory.keySet())
-			if (a % 2 == 0 && getWord(a) != 0)
-				length++;
+		for (byte[] page : pages)
+			if (page != null)
+				for (int j = 0; j < pageSize; j += 2)
+					if (page[j] != 0 || page[j + 1] != 0)
+						length++;
 		
 		String[][] data = new String[length][2];
 		int i = 0;
-		for (int address : memory.keySet()){
-			if (address % 2 == 1 || getWord(address) == 0)
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null)
 				continue;
-			data[i][0] = String.format((hex)? "0x%0" + bits + "X" : "%d", address);
-			data[i][1] = String.format((hex)? "0x%04X" : "%d", getWord(address));
-			i++;
+			for (int j = 0; j < pageSize; j += 2) {
+				int address = (p << PAGE_BITS) + j;
+				if (pages[p][j] == 0 && pages[p][j + 1] == 0)
+					continue;
+				data[i][0] = String.format((hex)? "0x%0" + bits + "X" : "%d", address);
+				data[i][1] = String.format((hex)? "0x%04X" : "%d", getWord(address));
+				i++;
+			}
 		}
 		String accesses = String.format("%-20s : %d\n%-20s : %d", "Instruction accesses", instructionAccesses, "Data accesses", dataAccesses);
 		return new Object[]{data, headers, accesses};
@@ -153,8 +221,57 @@ public class Memory implements Addressable {
 	public void clear() {
 		instructionAccesses = 0;
 		dataAccesses = 0;
-		memory = new TreeMap<Integer, Byte>();
-		instructions = new ArrayList<Instruction>();
+		pages = new byte[size / pageSize][];
+		instructions = new int[16];
+		instructionCount = 0;
+	}
+	
+	// Only the pages written so far are saved
+	public void save(Snapshot snapshot) {
+		snapshot.writeInt(size);
+		snapshot.writeInt(instructionsStartAddress);
+		snapshot.writeInt(dataStartAddress);
+		snapshot.writeInt(instructionAccesses);
+		snapshot.writeInt(dataAccesses);
+		snapshot.writeInts(instructions, instructionCount);
+		
+		int allocated = 0;
+		for (byte[] page : pages)
+			if (page != null)
+				allocated++;
+		
+		snapshot.writeInt(allocated);
+		for (int p = 0; p < pages.length; p++) {
+			if (pages[p] == null)
+				continue;
+			snapshot.writeInt(p);
+			snapshot.writeBytes(pages[p], pageSize);
+		}
+	}
+	
+	public void restore(Snapshot snapshot) {
+		if (snapshot.readInt() != size || snapshot.readInt() != instructionsStartAddress || snapshot.readInt() != dataStartAddress)
+			throw new IllegalArgumentException("The snapshot's memory configuration doesn't match the current one");
+		
+		instructionAccesses = snapshot.readInt();
+		dataAccesses = snapshot.readInt();
+		int[] words = snapshot.readInts();
+		instructionCount = words.length;
+		instructions = Arrays.copyOf(words, Math.max(16, words.length));
+		
+		pages = new byte[size / pageSize][];
+		for (int allocated = snapshot.readInt(); allocated > 0; allocated--) {
+			int p = snapshot.readInt();
+			byte[] page = snapshot.readBytes();
+			if (p < 0 || p >= pages.length || page.length != pageSize)
+				throw new IllegalArgumentException("Invalid snapshot page (" + p + ")");
+			pages[p] = page;
+		}
+	}
+	
+	public void resetStatistics() {
+		instructionAccesses = 0;
+		dataAccesses = 0;
 	}
 	
 	public int getDataAccesses() {
@@ -165,9 +282,9 @@ public class Memory implements Addressable {
 		return accessTime;
 	}
 	
-	public ArrayList<Instruction> getInstructions() {
-		 return instructions;
-	 }
+	public int getInstructionCount() {
+		return instructionCount;
+	}
 	
 	public int getSize() {
 		return size;
@@ -178,7 +295,7 @@ public class Memory implements Addressable {
 	}
 	
 	public int getLastInstructionAddress() {
-		return instructionsStartAddress + instructions.size() * 2 - 2;
+		return instructionsStartAddress + instructionCount * 2 - 2;
 	}
 	
 	public int getDataStartAddress() {
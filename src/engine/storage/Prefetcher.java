@@ -0,0 +1,138 @@
+package engine.storage;
+
+import java.util.Arrays;
+
+import engine.types.PrefetchPolicy;
+
+// Watches the demand accesses of a data cache and asks it to prefetch lines. Addresses are handled as line numbers
+// (address / line size), and a trigger is a miss or the first use of a prefetched line
+abstract class Prefetcher {
+	
+	public static Prefetcher create(PrefetchPolicy policy) {
+		switch (policy) {
+			case NEXT_LINE:
+				return new NextLine();
+			case STRIDE:
+				return new Stride(64);
+			case STREAM:
+				return new Stream(4, 4);
+			default:
+				return null;
+		}
+	}
+	
+	public abstract void access(DataCache cache, int pc, int address, int line, boolean trigger);
+	
+	// Tagged next line prefetching, which keeps a sequential walk one line ahead
+	private static class NextLine extends Prefetcher {
+		
+		public void access(DataCache cache, int pc, int address, int line, boolean trigger) {
+			if (trigger)
+				cache.prefetchLine(line + 1);
+		}
+		
+	}
+	
+	// A table indexed by pc, each entry holding the last address and stride of its load or store and a 2 bit confidence.
+	// Confident entries prefetch the line the stride reaches a full line ahead
+	private static class Stride extends Prefetcher {
+		
+		private int mask;
+		private int[] pcs;
+		private int[] addresses;
+		private int[] strides;
+		private byte[] confidence;
+		
+		public Stride(int entries) {
+			mask = entries - 1;
+			pcs = new int[entries];
+			addresses = new int[entries];
+			strides = new int[entries];
+			confidence = new byte[entries];
+			Arrays.fill(pcs, -1);
+		}
+		
+		public void access(DataCache cache, int pc, int address, int line, boolean trigger) {
+			if (pc < 0)
+				return;
+			
+			int entry = (pc >>> 1) & mask;
+			if (pcs[entry] != pc) {
+				pcs[entry] = pc;
+				addresses[entry] = address;
+				strides[entry] = 0;
+				confidence[entry] = 0;
+				return;
+			}
+			
+			int stride = address - addresses[entry];
+			addresses[entry] = address;
+			if (stride != 0 && stride == strides[entry]) {
+				if (confidence[entry] < 3)
+					confidence[entry]++;
+			} else if (confidence[entry] > 0)
+				confidence[entry]--;
+			else
+				strides[entry] = stride;
+			
+			// Only an access that confirms the entry's stride prefetches, never a repeat or a break in the walk
+			if (confidence[entry] < 2 || stride != strides[entry] || stride == 0)
+				return;
+			
+			int distance = Math.max(1, cache.getLineSize() / Math.abs(strides[entry]));
+			cache.prefetch(address + strides[entry] * distance);
+		}
+		
+	}
+	
+	// Stream trackers allocated on misses. A second trigger next to a tracked line sets the stream's direction and
+	// prefetches the lines ahead of it, and every later trigger on the stream keeps it that many lines ahead
+	private static class Stream extends Prefetcher {
+		
+		private int depth;
+		private int[] lines;
+		private int[] directions;
+		private int[] ages;
+		private int time;
+		
+		public Stream(int streams, int depth) {
+			this.depth = depth;
+			lines = new int[streams];
+			directions = new int[streams];
+			ages = new int[streams];
+			Arrays.fill(lines, -2);
+		}
+		
+		public void access(DataCache cache, int pc, int address, int line, boolean trigger) {
+			if (!trigger)
+				return;
+			
+			time++;
+			int oldest = 0;
+			for (int s = 0; s < lines.length; s++) {
+				if (directions[s] != 0 && line == lines[s] + directions[s]) {
+					lines[s] = line;
+					ages[s] = time;
+					cache.prefetchLine(line + directions[s] * depth);
+					return;
+				}
+				if (directions[s] == 0 && Math.abs(line - lines[s]) == 1) {
+					directions[s] = line - lines[s];
+					lines[s] = line;
+					ages[s] = time;
+					for (int ahead = 1; ahead <= depth; ahead++)
+						cache.prefetchLine(line + directions[s] * ahead);
+					return;
+				}
+				if (ages[s] < ages[oldest])
+					oldest = s;
+			}
+			
+			lines[oldest] = line;
+			directions[oldest] = 0;
+			ages[oldest] = time;
+		}
+		
+	}
+	
+}
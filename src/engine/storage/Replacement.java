@@ -0,0 +1,246 @@
+package engine.storage;
+
+import engine.Helpers;
+import engine.Snapshot;
+import engine.types.ReplacementPolicy;
+
+// Replacement state of a cache, kept in flat arrays by line index (set * associativity + way). Victims are only asked
+// for full sets, invalid ways are filled first by the caches
+abstract class Replacement {
+	
+	protected final int associativity;
+	
+	protected Replacement(int associativity) {
+		this.associativity = associativity;
+	}
+	
+	public static Replacement create(ReplacementPolicy policy, int sets, int associativity) {
+		switch (policy) {
+			case FIFO:
+				return new Order(sets, associativity, false);
+			case LRU:
+				return new Order(sets, associativity, true);
+			case PLRU:
+				if (!Helpers.isPowerOf2(associativity))
+					throw new IllegalArgumentException("Tree PLRU needs a power of 2 associativity (" + associativity + ")");
+				return new Tree(sets, associativity);
+			case SRRIP:
+				return new ReReference(sets * associativity, associativity);
+			default:
+				return new Random(associativity);
+		}
+	}
+	
+	public abstract void hit(int line);
+	
+	public abstract void fill(int line);
+	
+	// Picks the line to replace in the full set starting at the given line
+	public abstract int victim(int first);
+	
+	public abstract void save(Snapshot snapshot);
+	
+	public abstract void restore(Snapshot snapshot);
+	
+	// Each set's lines linked from the last filled, or used for LRU, to the next victim, so that both hits and
+	// replacements take constant time whatever the associativity
+	private static class Order extends Replacement {
+		
+		private final boolean onHit;
+		private int[] newer;
+		private int[] older;
+		private int[] newest;
+		private int[] oldest;
+		
+		public Order(int sets, int associativity, boolean onHit) {
+			super(associativity);
+			this.onHit = onHit;
+			newer = new int[sets * associativity];
+			older = new int[sets * associativity];
+			newest = new int[sets];
+			oldest = new int[sets];
+			for (int set = 0; set < sets; set++) {
+				int first = set * associativity;
+				for (int line = first; line < first + associativity; line++) {
+					newer[line] = (line == first)? -1 : line - 1;
+					older[line] = (line == first + associativity - 1)? -1 : line + 1;
+				}
+				newest[set] = first;
+				oldest[set] = first + associativity - 1;
+			}
+		}
+		
+		public void hit(int line) {
+			if (onHit)
+				fill(line);
+		}
+		
+		public void fill(int line) {
+			int set = line / associativity;
+			if (newest[set] == line)
+				return;
+			
+			if (older[line] == -1)
+				oldest[set] = newer[line];
+			else
+				newer[older[line]] = newer[line];
+			older[newer[line]] = older[line];
+			
+			older[line] = newest[set];
+			newer[newest[set]] = line;
+			newer[line] = -1;
+			newest[set] = line;
+		}
+		
+		public int victim(int first) {
+			return oldest[first / associativity];
+		}
+		
+		public void save(Snapshot snapshot) {
+			snapshot.writeInts(newer, newer.length);
+			snapshot.writeInts(older, older.length);
+			snapshot.writeInts(newest, newest.length);
+			snapshot.writeInts(oldest, oldest.length);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			int[][] links = {snapshot.readInts(), snapshot.readInts(), snapshot.readInts(), snapshot.readInts()};
+			if (links[0].length != newer.length || links[1].length != older.length || links[2].length != newest.length
+					|| links[3].length != oldest.length)
+				throw new IllegalArgumentException("Invalid snapshot cache");
+			newer = links[0];
+			older = links[1];
+			newest = links[2];
+			oldest = links[3];
+		}
+		
+	}
+	
+	// One binary tree of associativity - 1 nodes per set, each node pointing at the half used less recently
+	private static class Tree extends Replacement {
+		
+		private final int levels;
+		private byte[] nodes;
+		
+		public Tree(int sets, int associativity) {
+			super(associativity);
+			this.levels = Integer.numberOfTrailingZeros(associativity);
+			this.nodes = new byte[sets * associativity];
+		}
+		
+		public void hit(int line) {
+			int base = line - line % associativity;
+			int way = line - base;
+			int node = 1;
+			for (int level = levels - 1; level >= 0; level--) {
+				int side = (way >>> level) & 1;
+				nodes[base + node] = (byte)(side ^ 1);
+				node = node * 2 + side;
+			}
+		}
+		
+		public void fill(int line) {
+			hit(line);
+		}
+		
+		public int victim(int first) {
+			int node = 1;
+			for (int level = 0; level < levels; level++)
+				node = node * 2 + nodes[first + node];
+			return first + node - associativity;
+		}
+		
+		public void save(Snapshot snapshot) {
+			snapshot.writeBytes(nodes, nodes.length);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			byte[] nodes = snapshot.readBytes();
+			if (nodes.length != this.nodes.length)
+				throw new IllegalArgumentException("Invalid snapshot cache");
+			this.nodes = nodes;
+		}
+		
+	}
+	
+	// Static re-reference interval prediction with 2 bit counters: lines are filled expecting a long interval, a hit
+	// predicts a near one, and the first line expecting a distant one is replaced, aging the whole set until one is
+	private static class ReReference extends Replacement {
+		
+		private static final byte DISTANT = 3;
+		private byte[] intervals;
+		
+		public ReReference(int lines, int associativity) {
+			super(associativity);
+			this.intervals = new byte[lines];
+		}
+		
+		public void hit(int line) {
+			intervals[line] = 0;
+		}
+		
+		public void fill(int line) {
+			intervals[line] = DISTANT - 1;
+		}
+		
+		public int victim(int first) {
+			int oldest = 0;
+			for (int i = first; i < first + associativity; i++)
+				oldest = Math.max(oldest, intervals[i]);
+			
+			int age = DISTANT - oldest;
+			int line = -1;
+			for (int i = first; i < first + associativity; i++) {
+				intervals[i] += age;
+				if (line == -1 && intervals[i] == DISTANT)
+					line = i;
+			}
+			return line;
+		}
+		
+		public void save(Snapshot snapshot) {
+			snapshot.writeBytes(intervals, intervals.length);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			byte[] intervals = snapshot.readBytes();
+			if (intervals.length != this.intervals.length)
+				throw new IllegalArgumentException("Invalid snapshot cache");
+			this.intervals = intervals;
+		}
+		
+	}
+	
+	// Xorshift with a fixed seed, so that runs can be repeated
+	private static class Random extends Replacement {
+		
+		private int state = 0x2545F491;
+		
+		public Random(int associativity) {
+			super(associativity);
+		}
+		
+		public void hit(int line) {
+		}
+		
+		public void fill(int line) {
+		}
+		
+		public int victim(int first) {
+			state ^= state << 13;
+			state ^= state >>> 17;
+			state ^= state << 5;
+			return first + Integer.remainderUnsigned(state, associativity);
+		}
+		
+		public void save(Snapshot snapshot) {
+			snapshot.writeInt(state);
+		}
+		
+		public void restore(Snapshot snapshot) {
+			state = snapshot.readInt();
+		}
+		
+	}
+	
+}
@@ -0,0 +1,55 @@
+package engine.types;
+
+public class AccessResult {
+	
+	// Cycles spent over all the levels touched, and how far down the hierarchy the access was served. The pc of the
+	// load or store is only known to prefetchers when the caller sets it
+	private int cycles;
+	private int level;
+	private boolean writeBack;
+	private int pc = -1;
+	
+	public void clear() {
+		cycles = 0;
+		level = 0;
+		writeBack = false;
+		pc = -1;
+	}
+	
+	public void setPc(int pc) {
+		this.pc = pc;
+	}
+	
+	public int getPc() {
+		return pc;
+	}
+	
+	public void addCycles(int cycles) {
+		this.cycles += cycles;
+	}
+	
+	public int getCycles() {
+		return cycles;
+	}
+	
+	public void miss() {
+		level++;
+	}
+	
+	public void setLevel(int level) {
+		this.level = level;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public void setWriteBack() {
+		writeBack = true;
+	}
+	
+	public boolean isWriteBack() {
+		return writeBack;
+	}
+	
+}
@@ -2,8 +2,22 @@ package engine.types;
 
 public interface Addressable {
 
-	byte[] getData(int address, int bytes);
+	short readWord(int address, AccessResult result);
 	
-	void setData(int address, byte[] data);
+	void writeWord(int address, short value, AccessResult result);
+	
+	void readLine(int address, byte[] buffer, int offset, int bytes, AccessResult result);
+	
+	void writeLine(int address, byte[] buffer, int offset, int bytes, AccessResult result);
+	
+	default byte[] getData(int address, int bytes) {
+		byte[] data = new byte[bytes];
+		readLine(address, data, 0, bytes, new AccessResult());
+		return data;
+	}
+	
+	default void setData(int address, byte[] data) {
+		writeLine(address, data, 0, data.length, new AccessResult());
+	}
 	
 }
@@ -0,0 +1,44 @@
+package engine.types;
+
+public class ExecutionResult {
+	
+	private FunctionType function;
+	private int destination;
+	private int effectiveAddress;
+	private int executionTime;
+	private int level;
+	
+	public void set(FunctionType function, int destination, int effectiveAddress) {
+		set(function, destination, effectiveAddress, -1, 0);
+	}
+	
+	// Loads and stores also give the data cache level that served them
+	public void set(FunctionType function, int destination, int effectiveAddress, int executionTime, int level) {
+		this.function = function;
+		this.destination = destination;
+		this.effectiveAddress = effectiveAddress;
+		this.executionTime = executionTime;
+		this.level = level;
+	}
+	
+	public FunctionType getFunction() {
+		return function;
+	}
+	
+	public int getDestination() {
+		return destination;
+	}
+	
+	public int getEffectiveAddress() {
+		return effectiveAddress;
+	}
+	
+	public int getExecutionTime() {
+		return executionTime;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+}
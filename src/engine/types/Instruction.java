@@ -1,93 +1,104 @@
 package engine.types;
 
-public class Instruction implements Cloneable {
+public class Instruction {
 
-	private int address;
-	private String operation;
-	private Object[] operands;
+	// Encoded instruction words are laid out as [immediate:16][unused:1][r2:3][r1:3][r0:3][opcode:6]
+	public static final int NONE = -1;
+	
+	private static final Opcode[] opcodes = Opcode.values();
 	
-	private FunctionType function;
-	private int executionTime;
-	private int destination;
-	private int effectiveAddress;
+	private int address;
+	private int word;
 	
-	public Instruction(int address, String operation, Object[] operands) {
+	public Instruction(int address, int word) {
 		this.address = address;
-		this.operation = operation;
-		this.operands = operands;
-		executionTime = -1;
+		this.word = word;
 	}
 	
 	public int getAddress() {
 		return address;
 	}
 	
-	public String getOperation() {
-		return operation;
-	}
-		
-	public Object[] getOperands() {
-		return operands;
+	public int getWord() {
+		return word;
 	}
 	
-	public int getRegisterNumber(int operandNumber) {
-		if (operandNumber > -1 && operandNumber < operands.length && operands[operandNumber] instanceof Register)
-			return ((Register)operands[operandNumber]).getNumber();
-		
-		return -1;
+	public String getOperation() {
+		return getOpcode().getMnemonic();
 	}
 	
-	public void setFunction(FunctionType function) {
-		this.function = function;
+	public Opcode getOpcode() {
+		return opcodeOf(word);
 	}
 	
-	public FunctionType getFunction() {
-		return function;
+	public int getRegisterNumber(int operandNumber) {
+		return registerOf(word, operandNumber);
 	}
 	
-	public void setExecutionTime(int executionTime) {
-		this.executionTime = executionTime;
+	public int getImmediate() {
+		return immediateOf(word);
 	}
 	
-	public int getExecutionTime() {
-		return executionTime;
+	public String format(int operation, int operand) {
+		Opcode opcode = getOpcode();
+		String[] operands = new String[opcode.getOperands()];
+		for (int i = 0; i < opcode.getRegisters(); i++)
+			operands[i] = "R" + getRegisterNumber(i);
+		
+		if (opcode.hasImmediate())
+			operands[operands.length - 1] = getImmediate() + "";
+		
+		String instruction = String.format("%-" + operation + "s ", opcode.getMnemonic());
+		for (int i = 0; i < operands.length - 1; i++)
+			instruction += String.format("%-" + operand + "s, ", operands[i]);
+		
+		instruction += operands[operands.length - 1];
+		return instruction.toUpperCase();
 	}
 	
-	public void setDestination(int destination) {
-		this.destination = destination;
+	public String toString() {
+		return format(5, 2);
 	}
+	
+	public static int encode(Opcode opcode, int[] registers, int immediate) {
+		int word = opcode.ordinal();
+		for (int i = 0; i < registers.length; i++)
+			word |= registers[i] << (6 + i * 3);
 		
-	public int getDestination() {
-		return destination;
+		return withImmediate(word, immediate);
 	}
 	
-	public void setEffectiveAddress(int effectiveAddress) {
-		this.effectiveAddress = effectiveAddress;
+	public static int withImmediate(int word, int immediate) {
+		return (word & 0xffff) | (immediate << 16);
 	}
 	
-	public int getEffectiveAddress() {
-		return effectiveAddress;
+	// Words that aren't instructions, such as NONE, have an opcode field past the last opcode
+	public static Opcode opcodeOf(int word) {
+		int opcode = word & 0x3f;
+		if (opcode >= opcodes.length)
+			throw new IllegalArgumentException("Invalid opcode (" + opcode + ")");
+		
+		return opcodes[opcode];
 	}
 	
-	public String format(int operation, int operand) {
-		String instruction = String.format("%-" + operation + "s ", this.operation);
-		for (int i = 0; i < operands.length - 1; i++) 
-			instruction += String.format("%-" + operand + "s, ", operands[i]);
+	public static int registerOf(int word, int operandNumber) {
+		if (operandNumber > -1 && operandNumber < opcodeOf(word).getRegisters())
+			return (word >> (6 + operandNumber * 3)) & 7;
 		
-		instruction += operands[operands.length - 1];
-		return instruction.toUpperCase();
+		return -1;
 	}
 	
-	public Instruction clone() {
-		try {
-			return (Instruction)super.clone();
-		} catch (CloneNotSupportedException e) {
-			return null;
-		}
+	// The register an instruction writes, or NONE for stores, branches and plain jumps
+	public static int destinationOf(int word) {
+		FunctionType function = opcodeOf(word).getFunction();
+		if (function == FunctionType.STORE || function == FunctionType.BRANCH || function == FunctionType.JUMP)
+			return NONE;
+		
+		return registerOf(word, 0);
 	}
 	
-	public String toString() {
-		return format(5, 2);
+	public static int immediateOf(int word) {
+		return word >> 16;
 	}
 	
 }
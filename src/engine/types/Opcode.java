@@ -0,0 +1,76 @@
+package engine.types;
+
+import java.util.HashMap;
+
+public enum Opcode {
+	ADD(FunctionType.ADD, 3, false),
+	ADDI(FunctionType.ADD, 2, true),
+	LUI(FunctionType.LOAD, 1, true),
+	SUB(FunctionType.ADD, 3, false),
+	SUBI(FunctionType.ADD, 2, true),
+	AND(FunctionType.ALU, 3, false),
+	ANDI(FunctionType.ALU, 2, true),
+	OR(FunctionType.ALU, 3, false),
+	ORI(FunctionType.ALU, 2, true),
+	NAND(FunctionType.ALU, 3, false),
+	NOR(FunctionType.ALU, 3, false),
+	MUL(FunctionType.MULTIPLY, 3, false),
+	MULI(FunctionType.MULTIPLY, 2, true),
+	DIV(FunctionType.DIVIDE, 3, false),
+	DIVI(FunctionType.DIVIDE, 2, true),
+	MOD(FunctionType.DIVIDE, 3, false),
+	MODI(FunctionType.DIVIDE, 2, true),
+	LW(FunctionType.LOAD, 2, true),
+	SW(FunctionType.STORE, 2, true),
+	BEQ(FunctionType.BRANCH, 2, true),
+	BNE(FunctionType.BRANCH, 2, true),
+	BGT(FunctionType.BRANCH, 2, true),
+	BLT(FunctionType.BRANCH, 2, true),
+	BGE(FunctionType.BRANCH, 2, true),
+	BLE(FunctionType.BRANCH, 2, true),
+	JMP(FunctionType.JUMP, 1, true),
+	RET(FunctionType.JUMP, 1, false),
+	JALR(FunctionType.JUMP_AND_LINK, 2, false);
+	
+	private static final HashMap<String, Opcode> mnemonics = new HashMap<String, Opcode>();
+	
+	static {
+		for (Opcode opcode : values())
+			mnemonics.put(opcode.getMnemonic(), opcode);
+	}
+	
+	private final FunctionType function;
+	private final int registers;
+	private final boolean immediate;
+	
+	private Opcode(FunctionType function, int registers, boolean immediate) {
+		this.function = function;
+		this.registers = registers;
+		this.immediate = immediate;
+	}
+	
+	public String getMnemonic() {
+		return name().toLowerCase();
+	}
+	
+	public FunctionType getFunction() {
+		return function;
+	}
+	
+	public int getRegisters() {
+		return registers;
+	}
+	
+	public boolean hasImmediate() {
+		return immediate;
+	}
+	
+	public int getOperands() {
+		return registers + ((immediate)? 1 : 0);
+	}
+	
+	public static Opcode fromMnemonic(String mnemonic) {
+		return mnemonics.get(mnemonic);
+	}
+	
+}
@@ -0,0 +1,8 @@
+package engine.types;
+
+public enum PrefetchPolicy {
+	NONE,
+	NEXT_LINE,
+	STRIDE,
+	STREAM
+}
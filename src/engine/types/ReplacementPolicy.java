@@ -0,0 +1,9 @@
+package engine.types;
+
+public enum ReplacementPolicy {
+	FIFO,
+	LRU,
+	PLRU,
+	SRRIP,
+	RANDOM
+}
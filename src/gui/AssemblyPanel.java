@@ -1,13 +1,12 @@
 package gui;
 
-import engine.types.Instruction;
+import engine.storage.Memory;
 import gui.components.ResizableTable;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Component;
 import java.awt.Font;
-import java.util.ArrayList;
 
 import javax.swing.JLabel;
 import javax.swing.JPanel;
@@ -23,13 +22,13 @@ public class AssemblyPanel extends JPanel {
 	public AssemblyPanel(boolean hex) {
 		super(new BorderLayout(0, 10));
 
-		ArrayList<Instruction> instructions = Simulator.processor.getMemory().getInstructions();
-		String[][] text = new String[instructions.size()][2];
-		addresses = new int[instructions.size()];
+		Memory memory = Simulator.processor.getMemory();
+		String[][] text = new String[memory.getInstructionCount()][2];
+		addresses = new int[text.length];
 		for (int i = 0; i < text.length; i++) {
-			addresses[i] = instructions.get(i).getAddress();
+			addresses[i] = memory.getInstructionsStartAddress() + i * 2;
 			text[i][0] = String.format((hex) ? " 0x%04X" : " %d", addresses[i]);
-			text[i][1] = " " + instructions.get(i).toString();
+			text[i][1] = " " + memory.getInstruction(addresses[i]).toString();
 		}
 
 		resizableTable = new ResizableTable(text, new String[] {"Address", "Instruction"}, new int[]{35, 0}) {
@@ -22,10 +22,13 @@ public class CacheSettings extends JPanel {
 	private InputBox accessTime;
 	private JComboBox<String> hitPolicy;
 	private JComboBox<String> missPolicy;
+	private JComboBox<String> replacementPolicy;
+	private JComboBox<String> prefetcher;
+	private InputBox missRegisters;
 	private int[] configuration;
 	
 	public CacheSettings(String title, boolean dataCache) {
-		super(new GridLayout((dataCache)? 6 : 4, 1, 0, 5));
+		super(new GridLayout((dataCache)? 9 : 5, 1, 0, 5));
 		
 		Border b1 = BorderFactory.createTitledBorder(null, title, TitledBorder.LEFT, TitledBorder.TOP, 
 				new Font("Consolas", Font.PLAIN, 19), Color.RED);
@@ -41,8 +44,21 @@ public class CacheSettings extends JPanel {
 		add(associativity);
 		add(accessTime);
 		
-		if (!dataCache) 
+		JLabel l3 = new JLabel("Replacement");
+		l3.setPreferredSize(new Dimension(125, l3.getPreferredSize().height));
+		
+		replacementPolicy = new JComboBox<String>(new String[]{"FIFO", "LRU", "Tree PLRU", "SRRIP", "Random"});
+		replacementPolicy.setPreferredSize(new Dimension(155, replacementPolicy.getPreferredSize().height));
+		replacementPolicy.setFocusable(false);
+		
+		JPanel p3 = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+		p3.add(l3);
+		p3.add(replacementPolicy);
+		
+		if (!dataCache) {
+			add(p3);
 			return;
+		}
 		
 		JLabel l1 = new JLabel("Hit Policy");
 		l1.setPreferredSize(new Dimension(125, l1.getPreferredSize().height));
@@ -66,18 +82,35 @@ public class CacheSettings extends JPanel {
 		p2.add(l2);
 		p2.add(missPolicy);
 		
+		JLabel l4 = new JLabel("Prefetcher");
+		l4.setPreferredSize(new Dimension(125, l4.getPreferredSize().height));
+		
+		prefetcher = new JComboBox<String>(new String[]{"None", "Next Line", "Stride", "Stream"});
+		prefetcher.setPreferredSize(new Dimension(155, prefetcher.getPreferredSize().height));
+		prefetcher.setFocusable(false);
+		
+		JPanel p4 = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+		p4.add(l4);
+		p4.add(prefetcher);
+		
+		missRegisters = new InputBox("MSHRs", 125, 5, "0 = Unlimited");
+		
 		add(p1);
 		add(p2);
+		add(p3);
+		add(p4);
+		add(missRegisters);
 	}
 	
 	public int[] getConfiguration(){
 		if (hitPolicy == null)
 			return new int[]{lineSize.getInput()[0], lineSize.getInput()[1], cacheLines.getValue(), 
-				associativity.getValue(), accessTime.getValue()};
+				associativity.getValue(), accessTime.getValue(), replacementPolicy.getSelectedIndex()};
 		
 		return new int[]{lineSize.getInput()[0], lineSize.getInput()[1], cacheLines.getValue(), 
 				associativity.getValue(), accessTime.getValue(), hitPolicy.getSelectedIndex(), 
-				missPolicy.getSelectedIndex()};
+				missPolicy.getSelectedIndex(), replacementPolicy.getSelectedIndex(), prefetcher.getSelectedIndex(), 
+				missRegisters.getValue()};
 	}
 	
 	public void setConfiguration(int[] configuration) {
@@ -98,11 +131,17 @@ public class CacheSettings extends JPanel {
 			accessTime.setInput(configuration[4]);
 		}
 		
+		replacementPolicy.setSelectedIndex((configuration == null)? 0 : configuration[(hitPolicy == null)? 5 : 7]);
 		if (hitPolicy == null)
 			return;
 		
 		hitPolicy.setSelectedIndex((configuration == null)? 0 : configuration[5]);
 		missPolicy.setSelectedIndex((configuration == null)? 0 : configuration[6]);
+		prefetcher.setSelectedIndex((configuration == null)? 0 : configuration[8]);
+		if (configuration == null)
+			missRegisters.clear();
+		else
+			missRegisters.setInput(configuration[9]);
 	}
 	
 	public void setEnabled(boolean enabled) {
@@ -111,6 +150,7 @@ public class CacheSettings extends JPanel {
 			cacheLines.clear();
 			associativity.clear();
 			accessTime.clear();
+			missRegisters.clear();
 		}
 		
 		lineSize.setEnabled(enabled);
@@ -119,6 +159,9 @@ public class CacheSettings extends JPanel {
 		accessTime.setEnabled(enabled);
 		hitPolicy.setEnabled(enabled);
 		missPolicy.setEnabled(enabled);
+		replacementPolicy.setEnabled(enabled);
+		prefetcher.setEnabled(enabled);
+		missRegisters.setEnabled(enabled);
 	}
 	
 }
@@ -52,8 +52,8 @@ public class StorageSettingsDialog extends JDialog {
 		l3Data.setEnabled(false);
 		
 		memorySettings.setConfiguration(new int[]{1, 1, 0, 32, 100});
-		l1Instruction.setConfiguration(new int[]{2, 0, 8, 8, 5});
-		l1Data.setConfiguration(new int[]{4, 0, 16, 1, 5, 0, 0});
+		l1Instruction.setConfiguration(new int[]{2, 0, 8, 8, 5, 0});
+		l1Data.setConfiguration(new int[]{4, 0, 16, 1, 5, 0, 0, 0, 0, 0});
 		
 		levels = new JComboBox<String>(new String[]{"1 Level", "2 Levels", "3 Levels"});
 		levels.addItemListener(new ItemListener() {
@@ -152,15 +152,21 @@ public class StorageSettingsDialog extends JDialog {
 			simulator.errorDialog.showError("Invalid/Missing input");
 			return;
 		}
-		int[][] newConfig = new int[config.length][6];
+		int[][] newConfig = new int[config.length][];
 		for (int i = 0; i < newConfig.length; i++) {
+			newConfig[i] = new int[(i == 0)? 4 : (i == 1)? 5 : 9];
 			newConfig[i][0] = config[i][0] * (int)Math.pow(1024, config[i][1]);
 			newConfig[i][1] = config[i][2];
 			newConfig[i][2] = config[i][3];
 			newConfig[i][3] = config[i][4];
-			if (config[i].length > 5) {
+			if (i == 1)
+				newConfig[i][4] = config[i][5];
+			else if (i > 1) {
 				newConfig[i][4] = config[i][5];
 				newConfig[i][5] = config[i][6] + 2;
+				newConfig[i][6] = config[i][7];
+				newConfig[i][7] = config[i][8];
+				newConfig[i][8] = config[i][9];
 			}
 		}
 		try {
@@ -0,0 +1,30 @@
+package engine;
+
+import java.util.Arrays;
+
+// Checks for the tests, which are plain programs run by test/run.sh and fail by throwing
+public class Assert {
+	
+	public static void assertTrue(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+	
+	public static void assertEquals(long expected, long actual, String message) {
+		if (expected != actual)
+			throw new AssertionError(message + " (expected " + expected + ", was " + actual + ")");
+	}
+	
+	public static void assertEquals(double expected, double actual, double tolerance, String message) {
+		if (Math.abs(expected - actual) > tolerance)
+			throw new AssertionError(message + " (expected " + expected + " within " + tolerance + ", was " + actual + ")");
+	}
+	
+	// Arrays are compared element by element, nested ones included
+	public static void assertEquals(Object expected, Object actual, String message) {
+		if (!Arrays.deepEquals(new Object[]{expected}, new Object[]{actual}))
+			throw new AssertionError(message + " (expected " + Arrays.deepToString(new Object[]{expected}) + ", was "
+					+ Arrays.deepToString(new Object[]{actual}) + ")");
+	}
+	
+}
@@ -0,0 +1,72 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+
+// Runs every program through its basic blocks, with and without compiling them, stepped and in chunks that stop
+// inside blocks, each run leaving the same state and error as the plain interpreter
+public class BasicBlockTest {
+	
+	// Branches into the middle of straight-line code, so that blocks overlap: the block at the loop head runs on into
+	// the one starting at the middle target
+	private static final TestProgram[] SPLITS = {
+		new TestProgram("Branches into a block", "", String.join("\n",
+				"addi r1, r0, 60",
+				"addi r2, r2, 1", "addi r3, r3, 2", "addi r4, r4, 3", "subi r1, r1, 1", "modi r5, r1, 2",
+				"beq r1, r0, 6", "beq r5, r0, -14", "jmp r0, -12",
+				"addi r6, r0, 1", "addi r7, r0, 7"), TestProgram.LARGE_MEMORY),
+		new TestProgram("Loop into its own block", "", String.join("\n",
+				"addi r1, r0, 60", "addi r2, r2, 1", "subi r1, r1, 1", "bgt r1, r0, -4", "addi r3, r0, 3"),
+				TestProgram.LARGE_MEMORY),
+	};
+	
+	public static void main(String[] args) {
+		int runs = 0;
+		for (TestProgram program : TestProgram.all())
+			for (int[][] caches : TestProgram.CACHES) {
+				compare(program, caches);
+				runs++;
+			}
+		for (TestProgram program : SPLITS)
+			for (int[][] caches : TestProgram.CACHES) {
+				compare(program, caches);
+				runs++;
+			}
+		System.out.println("BasicBlockTest passed (" + runs + " programs, 4 ways each)");
+	}
+	
+	private static void compare(TestProgram program, int[][] caches) {
+		String where = program + " " + caches.length;
+		Processor interpreted = program.load(caches, TestProgram.UNITS[0]);
+		String error = TestProgram.interpret(interpreted);
+		String state = TestProgram.state(interpreted);
+		
+		Processor processor = program.load(caches, TestProgram.UNITS[0]);
+		assertEquals(error, run(processor, Long.MAX_VALUE), where + " error");
+		assertEquals(state, TestProgram.state(processor), where + " state");
+		
+		processor = program.load(caches, TestProgram.UNITS[0]);
+		processor.setCompiling(false);
+		assertEquals(error, run(processor, Long.MAX_VALUE), where + " uncompiled error");
+		assertEquals(state, TestProgram.state(processor), where + " uncompiled state");
+		
+		processor = program.load(caches, TestProgram.UNITS[0]);
+		assertEquals(error, run(processor, 1), where + " stepped error");
+		assertEquals(state, TestProgram.state(processor), where + " stepped state");
+		
+		processor = program.load(caches, TestProgram.UNITS[0]);
+		assertEquals(error, run(processor, 7), where + " chunked error");
+		assertEquals(state, TestProgram.state(processor), where + " chunked state");
+	}
+	
+	private static String run(Processor processor, long chunk) {
+		try {
+			boolean ended = false;
+			while (!ended)
+				ended = processor.execute(chunk);
+			return null;
+		} catch (IllegalArgumentException ex) {
+			return ex.getMessage();
+		}
+	}
+	
+}
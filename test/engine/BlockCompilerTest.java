@@ -0,0 +1,70 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+import static engine.Assert.assertTrue;
+
+// Runs every program with its hot blocks compiled and through the plain interpreter, which must leave the same
+// registers, memory, caches and schedule, and stop on the same error
+public class BlockCompilerTest {
+	
+	// Loops of 60 iterations, so that their blocks run compiled well before they end
+	private static final TestProgram[] EDGES = {
+		// Register divisors counting down to zero, failing inside compiled blocks. The most negative word divided by -1
+		// overflows back to itself
+		new TestProgram("Divide by zero", "", String.join("\n",
+				"addi r1, r0, 60", "addi r2, r0, 50", "add r2, r2, r2", "lui r7, 512",
+				"div r3, r2, r1", "mod r4, r2, r1", "add r5, r5, r3", "add r6, r6, r4",
+				"divi r3, r7, -1", "add r5, r5, r3", "subi r1, r1, 1", "bge r1, r0, -16"), TestProgram.LARGE_MEMORY),
+		new TestProgram("Remainder by zero", "", String.join("\n",
+				"addi r1, r0, 60", "addi r2, r0, 50", "add r2, r2, r2",
+				"mod r4, r2, r1", "div r3, r2, r1", "add r5, r5, r3", "add r6, r6, r4",
+				"subi r1, r1, 1", "bge r1, r0, -12"), TestProgram.LARGE_MEMORY),
+		// jalr r5, r5 links and then jumps to the link, the next instruction. jalr r0 drops its link
+		new TestProgram("Jump and link to itself", "", String.join("\n",
+				"addi r1, r0, 60",
+				"jalr r5, r5", "addi r6, r5, 4", "jalr r0, r6", "add r2, r2, r5",
+				"subi r1, r1, 1", "bgt r1, r0, -12"), TestProgram.LARGE_MEMORY),
+		// Every kind of write to R0, which must keep reading 0
+		new TestProgram("Writes to R0", "512 9", String.join("\n",
+				"addi r1, r0, 60", "lui r7, 8",
+				"addi r0, r1, 5", "add r0, r1, r1", "lw r0, r7, 0", "lui r0, 3", "nand r0, r1, r1",
+				"divi r0, r1, 3", "add r2, r2, r0", "addi r2, r2, 1", "sw r2, r7, 2",
+				"subi r1, r1, 1", "bgt r1, r0, -22"), TestProgram.LARGE_MEMORY),
+	};
+	private static final String[] ERRORS = {"Can not divide by zero", "100 % 0 is undefined", null, null};
+	
+	public static void main(String[] args) {
+		int runs = 0;
+		int compiled = 0;
+		for (TestProgram program : TestProgram.all())
+			for (int[][] caches : TestProgram.CACHES) {
+				compiled += compare(program, caches, TestProgram.UNITS[0]);
+				runs++;
+			}
+		
+		for (int i = 0; i < EDGES.length; i++)
+			for (int[][] caches : TestProgram.CACHES) {
+				String where = EDGES[i] + " " + caches.length;
+				Processor processor = EDGES[i].load(caches, TestProgram.UNITS[0]);
+				assertEquals(ERRORS[i], TestProgram.run(processor), where + " error");
+				assertTrue(processor.getBlockCompiler().getCompiled() > 0, where + " compiled blocks");
+				compiled += compare(EDGES[i], caches, TestProgram.UNITS[0]);
+				runs++;
+			}
+		System.out.println("BlockCompilerTest passed (" + runs + " runs, " + compiled + " blocks compiled)");
+	}
+	
+	private static int compare(TestProgram program, int[][] caches, int[][] units) {
+		String where = program + " " + caches.length;
+		Processor compiled = program.load(caches, units);
+		String error = TestProgram.run(compiled);
+		Processor interpreted = program.load(caches, units);
+		assertEquals(TestProgram.interpret(interpreted), error, where + " error");
+		assertEquals(TestProgram.state(interpreted), TestProgram.state(compiled), where + " state");
+		
+		BlockCompiler compiler = compiled.getBlockCompiler();
+		assertEquals(0, compiler.getFailures(), where + " compile failures (" + compiler.getLastFailure() + ")");
+		return compiler.getCompiled();
+	}
+	
+}
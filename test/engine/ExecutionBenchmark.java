@@ -0,0 +1,54 @@
+package engine;
+
+import java.util.Arrays;
+
+// Simulated instructions per second of a nested load/store loop with a streamed schedule, through the plain
+// interpreter, through basic blocks with their bound handlers, and with hot blocks compiled.
+// Usage: ExecutionBenchmark [outer iterations] [rounds]
+public class ExecutionBenchmark {
+	
+	private static final String[] MODES = {"Interpreter", "Blocks", "Compiled blocks"};
+	
+	public static void main(String[] args) {
+		int outer = (args.length > 0)? Integer.parseInt(args[0]) : 60;
+		int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 5;
+		if (outer < 1 || outer > 32767)
+			throw new IllegalArgumentException("The outer iterations must be between 1 and 32767");
+		
+		// Adds up and increments every word from 512 to 4000, the given number of times
+		TestProgram program = new TestProgram("Nested loops", "", String.join("\n",
+				"movi r1, 512", "movi r2, 4000", "addi r3, r0, 0", "lui r6, " + (outer >> 6), "addi r6, r6, " + (outer & 63),
+				"addi r4, r1, 0", "lw r5, r4, 0", "add r3, r3, r5", "addi r5, r5, 1", "sw r5, r4, 0",
+				"addi r4, r4, 2", "blt r4, r2, -12", "subi r6, r6, 1", "bgt r6, r0, -18", "sw r3, r1, -2"),
+				TestProgram.LARGE_MEMORY);
+		
+		// Modes take turns in every round, so that none runs on a JIT warmed up by the others alone
+		long[] best = new long[MODES.length];
+		Processor[] processors = new Processor[MODES.length];
+		Arrays.fill(best, Long.MAX_VALUE);
+		for (int round = 0; round < rounds; round++)
+			for (int mode = 0; mode < MODES.length; mode++) {
+				Processor processor = program.load(TestProgram.CACHES[1], TestProgram.UNITS[0]);
+				processor.getUnitSet().setStreaming(true, null);
+				processor.setCompiling(mode == 2);
+				long start = System.nanoTime();
+				if (mode == 0)
+					TestProgram.interpret(processor);
+				else
+					processor.execute(false);
+				best[mode] = Math.min(best[mode], System.nanoTime() - start);
+				processors[mode] = processor;
+			}
+		
+		System.out.printf("%-20s %14s %14s%n", "Mode", "Instructions", "M inst/s");
+		for (int mode = 0; mode < MODES.length; mode++) {
+			// Every mode must simulate the same run
+			if (!TestProgram.state(processors[mode]).equals(TestProgram.state(processors[0])))
+				throw new AssertionError(MODES[mode] + " left a different state");
+			
+			int instructions = processors[mode].getUnitSet().getInstructions();
+			System.out.printf("%-20s %14d %14.2f%n", MODES[mode], instructions, instructions * 1000.0 / best[mode]);
+		}
+	}
+	
+}
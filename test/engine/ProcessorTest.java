@@ -0,0 +1,94 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+import static engine.Assert.assertTrue;
+
+import engine.types.Instruction;
+
+public class ProcessorTest {
+	
+	public static void main(String[] args) {
+		jumpOutside("jmp r0, 20", 2, "Invalid instruction address (24)");
+		jumpOutside("jmp r0, -12", 2, "Invalid instruction address (-8)");
+		jumpOutside("addi r1, r0, 3\njalr r2, r1", 4, "Invalid instruction address (3)");
+		jumpOutside("movi r1, 300\nret r1", 6, "Invalid instruction address (300)");
+		runPastEnd();
+		invalidOpcode();
+		invalidCache(1, 2, 0, "Cache associativity (0) must be at least 1");
+		invalidCache(2, 2, 0, "Cache associativity (0) must be at least 1");
+		invalidCache(2, 12, 2, "Cache lines (12) divided by the associativity (2) must give a power of 2 sets");
+		invalidCache(1, 8, 3, "Cache lines (8) divided by the associativity (3) must give a power of 2 sets");
+		System.out.println("ProcessorTest passed");
+	}
+	
+	// The jump is rejected with the pc left on it, compiled, stepped or interpreted
+	private static void jumpOutside(String jump, int pc, String error) {
+		String code = "addi r3, r0, 1\n" + jump + "\naddi r4, r0, 1\naddi r5, r0, 1";
+		TestProgram program = new TestProgram(jump, "", code, TestProgram.SMALL_MEMORY);
+		Processor interpreted = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+		assertEquals(error, TestProgram.interpret(interpreted), jump + " interpreted");
+		assertEquals(pc, interpreted.getRegisterFile().getPc(), jump + " interpreted pc");
+		
+		Processor processor = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+		assertEquals(error, TestProgram.run(processor), jump);
+		assertEquals(pc, processor.getRegisterFile().getPc(), jump + " pc");
+		
+		processor = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+		String stepped = null;
+		try {
+			boolean ended = false;
+			while (!ended)
+				ended = processor.execute(true);
+		} catch (IllegalArgumentException ex) {
+			stepped = ex.getMessage();
+		}
+		assertEquals(error, stepped, jump + " stepped");
+		assertEquals(pc, processor.getRegisterFile().getPc(), jump + " stepped pc");
+	}
+	
+	// Executing again once the program ended finds no instruction past its last one
+	private static void runPastEnd() {
+		TestProgram program = TestProgram.all().get(0);
+		Processor processor = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+		assertEquals(null, TestProgram.run(processor), "first run");
+		int end = processor.getMemory().getLastInstructionAddress() + 2;
+		assertEquals(end, processor.getRegisterFile().getPc(), "pc past the end");
+		assertEquals("Invalid instruction address (" + end + ")", TestProgram.run(processor), "run past the end");
+	}
+	
+	private static void invalidOpcode() {
+		String error = null;
+		try {
+			Instruction.opcodeOf(Instruction.NONE);
+		} catch (IllegalArgumentException ex) {
+			error = ex.getMessage();
+		}
+		assertTrue(error != null && error.startsWith("Invalid opcode"), "opcode of a word that isn't an instruction");
+	}
+	
+	
+	// A rejected cache names the field and leaves the storage the processor had, which still runs the program
+	private static void invalidCache(int level, int lines, int associativity, String error) {
+		TestProgram program = TestProgram.all().get(0);
+		Processor processor = program.load(TestProgram.CACHES[1], TestProgram.UNITS[0]);
+		int[][] config = new int[TestProgram.CACHES[1].length + 1][];
+		config[0] = program.memory.clone();
+		for (int i = 0; i < TestProgram.CACHES[1].length; i++)
+			config[i + 1] = TestProgram.CACHES[1][i].clone();
+		config[level][1] = lines;
+		config[level][2] = associativity;
+		
+		String rejected = null;
+		try {
+			processor.configureStorage(config);
+		} catch (IllegalArgumentException ex) {
+			rejected = ex.getMessage();
+		}
+		assertEquals(error, rejected, "level " + level + " configuration");
+		
+		Processor expected = program.load(TestProgram.CACHES[1], TestProgram.UNITS[0]);
+		assertEquals(null, TestProgram.run(expected), "level " + level + " expected run");
+		assertEquals(null, TestProgram.run(processor), "level " + level + " run after the configuration");
+		assertEquals(TestProgram.state(expected), TestProgram.state(processor), "level " + level + " state");
+	}
+}
@@ -0,0 +1,73 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+import static engine.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+// Samples a two-phase kernel with a fixed seed and checks the estimates against the full detailed run
+public class SamplerTest {
+	
+	// Six times over: squares summed in registers, then a load walk over 2KB, more than the data caches hold
+	private static final String PROGRAM = String.join("\n",
+			"addi r6, r0, 6",
+			"addi r1, r0, 0", "lui r2, 6",
+			"addi r1, r1, 1", "mul r3, r1, r1", "add r4, r4, r3", "blt r1, r2, -8",
+			"lui r1, 8", "lui r2, 40",
+			"lw r5, r1, 0", "add r7, r7, r5", "addi r1, r1, 2", "blt r1, r2, -8",
+			"subi r6, r6, 1", "bgt r6, r0, -28");
+	private static final long SEED = 42;
+	
+	// The estimates must be within 3% of the full run's IPC and 1 point of its L1 hit ratio
+	private static final double IPC_TOLERANCE = 0.03;
+	private static final double HIT_RATIO_TOLERANCE = 0.01;
+	
+	public static void main(String[] args) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Sampler sampler, again;
+		Processor processor;
+		try {
+			sampler = sample();
+			again = sample();
+			
+			processor = new Processor(configuration(), TestProgram.UNITS[0]);
+			Assembler.assemble("", PROGRAM, processor);
+			processor.getUnitSet().setStreaming(true, null);
+			processor.execute(false);
+		} finally {
+			System.setOut(out);
+		}
+		
+		assertEquals(sampler.getIpc(), again.getIpc(), 0, "IPC with the same seed");
+		assertEquals(sampler.getHitRatio(), again.getHitRatio(), 0, "hit ratio with the same seed");
+		assertEquals(sampler.getSimulatedInstructions(), again.getSimulatedInstructions(), "simulated with the same seed");
+		
+		int instructions = processor.getUnitSet().getInstructions();
+		double ipc = instructions * 1.0 / processor.getUnitSet().getCycles();
+		double hitRatio = processor.getDataCache(0).getHits() * 1.0 / processor.getDataCache(0).getAccesses();
+		assertEquals(instructions, sampler.getInstructions(), "profiled instructions");
+		assertTrue(sampler.getSimulatedInstructions() * 4 < instructions, "simulated under a quarter of the run");
+		assertEquals(ipc, sampler.getIpc(), ipc * IPC_TOLERANCE, "estimated IPC");
+		assertEquals(hitRatio, sampler.getHitRatio(), HIT_RATIO_TOLERANCE, "estimated hit ratio");
+		System.out.printf("SamplerTest passed (IPC %.4f for %.4f, hit ratio %.4f for %.4f, %d of %d simulated)%n",
+				sampler.getIpc(), ipc, sampler.getHitRatio(), hitRatio, sampler.getSimulatedInstructions(), instructions);
+	}
+	
+	private static Sampler sample() {
+		Sampler sampler = new Sampler(500, 4, 3, 2000, SEED);
+		sampler.run(configuration(), TestProgram.UNITS[0], "", PROGRAM);
+		return sampler;
+	}
+	
+	private static int[][] configuration() {
+		int[][] caches = TestProgram.CACHES[1];
+		int[][] config = new int[caches.length + 1][];
+		config[0] = TestProgram.LARGE_MEMORY.clone();
+		for (int i = 0; i < caches.length; i++)
+			config[i + 1] = caches[i].clone();
+		return config;
+	}
+	
+}
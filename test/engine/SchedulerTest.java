@@ -0,0 +1,243 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import engine.types.FunctionType;
+import engine.types.Instruction;
+
+// Compares every cell of the linear time schedule, buffered, streamed and rescheduled in a batch, with the quadratic
+// scheduler it replaced
+public class SchedulerTest {
+	
+	private static final String[] HEADERS = {"Issued", "Executed", "Written", "Committed"};
+	
+	public static void main(String[] args) throws IOException {
+		int schedules = 0;
+		for (TestProgram program : TestProgram.all())
+			for (int[][] caches : TestProgram.CACHES) {
+				for (int[][] units : TestProgram.UNITS) {
+					compare(program, caches, units);
+					schedules++;
+				}
+				compareBatch(program, caches);
+			}
+		System.out.println("SchedulerTest passed (" + schedules + " schedules)");
+	}
+	
+	private static void compare(TestProgram program, int[][] caches, int[][] units) throws IOException {
+		String where = program + " " + Arrays.deepToString(caches) + " " + Arrays.deepToString(units);
+		Processor processor = program.load(caches, units);
+		processor.execute(false);
+		int[][] expected = new QuadraticScheduler(processor.getUnitSet()).schedule(units, false);
+		
+		String[][] rows = (String[][])processor.getUnitSet().displaySchedule()[0];
+		assertEquals(expected.length, rows.length, where + " instructions");
+		for (int i = 0; i < rows.length; i++)
+			for (int j = 0; j < HEADERS.length; j++)
+				assertEquals(expected[i][j], Integer.parseInt(rows[i][j + 1]), where + " instruction " + i + " " + HEADERS[j]);
+		
+		Processor streamed = program.load(caches, units);
+		streamed.getUnitSet().setStreaming(true, null);
+		streamed.execute(false);
+		assertEquals(expected.length, streamed.getUnitSet().getInstructions(), where + " streamed instructions");
+		assertEquals(expected[expected.length - 1][3], streamed.getUnitSet().getCycles(), where + " streamed cycles");
+	}
+	
+	private static void compareBatch(TestProgram program, int[][] caches) throws IOException {
+		String where = program + " " + Arrays.deepToString(caches);
+		Processor processor = program.load(caches, TestProgram.UNITS[0]);
+		processor.execute(false);
+		QuadraticScheduler reference = new QuadraticScheduler(processor.getUnitSet());
+		
+		List<int[][]> batch = Arrays.asList(TestProgram.UNITS);
+		int[] cycles = processor.getUnitSet().scheduleConfigurations(batch, 2);
+		for (int i = 0; i < cycles.length; i++) {
+			int[][] expected = reference.schedule(batch.get(i), true);
+			assertEquals(expected[expected.length - 1][3], cycles[i], where + " batch " + Arrays.deepToString(batch.get(i)));
+		}
+	}
+	
+	// The quadratic scheduler of the original tree, rescanning every earlier instruction for each instruction, ported
+	// to read the executed instructions back from a snapshot of the units. Registers are decoded from the instruction
+	// words as the original did from the operands, so the sources UnitSet records are checked rather than shared
+	private static class QuadraticScheduler {
+		
+		private static final FunctionType[] functionTypes = FunctionType.values();
+		
+		private int[][] configuration;
+		private int[] words;
+		private byte[] functions;
+		private int[] effectiveAddresses;
+		private int[] recordedTimes;
+		private int[] executionTimes;
+		private boolean[] taken;
+		
+		public QuadraticScheduler(UnitSet unitSet) throws IOException {
+			File file = File.createTempFile("units", ".snapshot");
+			try {
+				Snapshot snapshot = Snapshot.create(file.getPath());
+				unitSet.save(snapshot);
+				snapshot.close();
+				
+				snapshot = Snapshot.open(file.getPath());
+				for (int i = snapshot.readInt(); i > 0; i--)
+					snapshot.readInts();
+				for (int i = snapshot.readInt(); i > 0; i--)
+					snapshot.readInts();
+				if (snapshot.readInt() != 0)
+					throw new IllegalArgumentException("Streamed units keep no instructions");
+				
+				snapshot.readInts();
+				words = snapshot.readInts();
+				functions = snapshot.readBytes();
+				snapshot.readBytes();
+				snapshot.readBytes();
+				snapshot.readBytes();
+				effectiveAddresses = snapshot.readInts();
+				recordedTimes = snapshot.readInts();
+				snapshot.readBytes();
+				taken = snapshot.readBooleans();
+			} finally {
+				file.delete();
+			}
+		}
+		
+		// Recorded loads and stores keep their cache times. On another configuration, its latencies replace the recorded
+		// times, as UnitSet.setConfiguration does
+		public int[][] schedule(int[][] configuration, boolean reconfigured) {
+			this.configuration = configuration;
+			executionTimes = recordedTimes.clone();
+			for (int i = 0; reconfigured && i < executionTimes.length; i++) {
+				int time = getExecutionTime(functionTypes[functions[i]]);
+				if (time != -1)
+					executionTimes[i] = time;
+			}
+			return scheduleInstructions();
+		}
+		
+		private int[][] scheduleInstructions() {
+			int[][] schedule = new int[words.length][4];
+			int dependancy;
+			boolean reset = false;
+			boolean cdbEmpty;
+			for (int i = 0; i < schedule.length; i++) {
+				if (i == 0)
+					schedule[i][0] = 1;
+				else if (reset)
+					schedule[i][0] = schedule[i - 1][3] + 1;
+				else
+					schedule[i][0] = Math.max(getIssueCycle1(schedule, i), getIssueCycle2(schedule, i));
+				
+				dependancy = getDependancy(i);
+				schedule[i][1] = (dependancy == -1)? schedule[i][0] : Math.max(schedule[dependancy][2], schedule[i][0]);
+				schedule[i][1] += executionTimes[i];
+				schedule[i][2] = schedule[i][1] + 1;
+				
+				do {
+					cdbEmpty = true;
+					for (int j = 0; j < i; j++) {
+						if (schedule[i][2] == schedule[j][2]) {
+							cdbEmpty = false;
+							schedule[i][2]++;
+							break;
+						}
+					}
+				} while(!cdbEmpty);
+				
+				schedule[i][3] = ((i == 0)? schedule[0][2] : Math.max(schedule[i - 1][3], schedule[i][2])) + 1;
+				
+				reset = false;
+				if (functions[i] == FunctionType.BRANCH.ordinal()) {
+					boolean prediction = Instruction.immediateOf(words[i]) >= 0;
+					reset = taken[i] != prediction;
+				}
+			}
+			return schedule;
+		}
+		
+		private int getIssueCycle1(int[][] schedule, int instructionNumber) {
+			int cycle = schedule[instructionNumber - 1][0] + 1;
+			int minCycle = schedule[instructionNumber - 1][3];
+			int robEntries = 0;
+			for (int j = instructionNumber - 1; j > -1; j--) {
+				if (cycle >= schedule[j][0] && cycle < schedule[j][3]) {
+					robEntries++;
+					if (minCycle > schedule[j][3]) {
+						minCycle = schedule[j][3];
+					}
+				}
+			}
+			return (robEntries >= configuration[0][0])? minCycle + 1 : cycle;
+		}
+		
+		private int getIssueCycle2(int[][] schedule, int instructionNumber) {
+			int function = functions[instructionNumber];
+			int cycle = schedule[instructionNumber - 1][0] + 1;
+			
+			if (function >= configuration.length - 1)
+				return cycle;
+			
+			int minCycle = schedule[instructionNumber - 1][3];
+			int stations = 0;
+			for (int j = instructionNumber - 1; j > -1; j--) {
+				if (function == functions[j] && cycle >= schedule[j][0] && cycle < schedule[j][3]) {
+					stations++;
+					if (minCycle > schedule[j][3]) {
+						minCycle = schedule[j][3];
+					}
+				}
+			}
+			int allStations = configuration[function + 1][0] * configuration[function + 1][1];
+			return (stations >= allStations)? minCycle : cycle;
+		}
+		
+		// The checks chain without else as they did originally, so that loads, stores and jumps also take the last case
+		private int getDependancy(int instructionNumber) {
+			FunctionType function = functionTypes[functions[instructionNumber]];
+			int word = words[instructionNumber];
+			boolean writes;
+			for (int i = instructionNumber - 1; i >= 0; i--) {
+				FunctionType prev = functionTypes[functions[i]];
+				writes = prev != FunctionType.STORE &&
+						prev != FunctionType.BRANCH &&
+						prev != FunctionType.JUMP;
+				int destination = Instruction.registerOf(words[i], 0);
+				
+				if (function == FunctionType.LOAD) {
+					if (prev == FunctionType.STORE &&
+						effectiveAddresses[i] == effectiveAddresses[instructionNumber])
+						return i;
+				} if (function == FunctionType.STORE || function == FunctionType.JUMP) {
+					if (writes && destination == Instruction.registerOf(word, 0))
+						return i;
+				} if (function == FunctionType.BRANCH) {
+					if (writes && (destination == Instruction.registerOf(word, 0) ||
+						destination == Instruction.registerOf(word, 1)))
+						return i;
+				} else {
+					if (writes && (destination == Instruction.registerOf(word, 1) ||
+						destination == Instruction.registerOf(word, 2)))
+						return i;
+				}
+			}
+			return -1;
+		}
+		
+		private int getExecutionTime(FunctionType function) {
+			if (function.ordinal() >= configuration.length - 1)
+				return 1;
+			
+			if (configuration[function.ordinal() + 1].length == 3)
+				return configuration[function.ordinal() + 1][2];
+			
+			return -1;
+		}
+		
+	}
+	
+}
@@ -0,0 +1,54 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+import static engine.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+public class SweepTest {
+	
+	private static final String PROGRAM = String.join("\n",
+			"addi r1, r0, 32", "addi r2, r0, 36", "addi r3, r0, 52",
+			"lw r4, r1, 0", "add r5, r5, r4", "addi r1, r1, 2", "ble r1, r2, -8",
+			"addi r1, r1, 4", "addi r2, r2, 10", "ble r1, r3, -14");
+	private static final String DATA = "32 1\n34 2\n36 3\n42 1\n44 2\n46 3\n52 1\n54 2\n56 3";
+	private static final int[][] UNITS = {{6}, {1, 2, 1}, {1, 2, 2}, {1, 2, 5}, {1, 2, 10}, {1, 2}, {1, 2}};
+	
+	public static void main(String[] args) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			failingConfigurationKeepsOtherRows();
+			endlessProgramStopsAtLimit();
+		} finally {
+			System.setOut(out);
+		}
+		System.out.println("SweepTest passed");
+	}
+	
+	// A write policy ordinal out of range fails in the Processor constructor with an unchecked exception other than
+	// IllegalArgumentException, which only fails its own row
+	private static void failingConfigurationKeepsOtherRows() {
+		Sweep sweep = new Sweep(DATA, PROGRAM);
+		sweep.add(new int[][]{{1024, 0, 32, 100}, {2, 8, 8, 5}, {4, 16, 1, 5, 0, 2}}, UNITS);
+		sweep.add(new int[][]{{1024, 0, 32, 100}, {2, 8, 8, 5}, {4, 16, 1, 5, 9, 2}}, UNITS);
+		sweep.add(new int[][]{{1024, 0, 32, 100}, {2, 8, 8, 5}, {4, 16, 4, 5, 0, 2}}, UNITS);
+		sweep.run(2);
+		
+		assertEquals(null, sweep.getError(0), "first row error");
+		assertTrue(sweep.getError(1) != null, "failing row keeps its error");
+		assertEquals(null, sweep.getError(2), "last row error");
+		assertTrue(sweep.getCycles(0) > 0 && sweep.getCycles(2) > 0, "other rows ran");
+	}
+	
+	private static void endlessProgramStopsAtLimit() {
+		Sweep sweep = new Sweep("", "addi r1, r1, 1\nbeq r0, r0, -4");
+		sweep.setInstructionLimit(10000);
+		sweep.add(new int[][]{{1024, 0, 32, 100}, {2, 8, 8, 5}, {4, 16, 1, 5, 0, 2}}, UNITS);
+		sweep.run(1);
+		
+		assertEquals("Didn't end within 10000 instructions", sweep.getError(0), "endless row error");
+	}
+	
+}
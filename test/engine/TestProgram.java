@@ -0,0 +1,208 @@
+package engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import engine.storage.Memory;
+
+// Programs the tests run, each with the memory configuration it fits in: the examples from EXAMPLES.md, then larger
+// ones using every opcode and enough data to miss in the caches
+public class TestProgram {
+	
+	public static final int[] SMALL_MEMORY = {1024, 0, 32, 100};
+	public static final int[] LARGE_MEMORY = {4096, 0, 256, 100};
+	
+	// Instruction cache then data cache levels, as taken by the Processor constructor after the memory
+	public static final int[][][] CACHES = {
+		{{2, 8, 8, 5}, {4, 16, 1, 5, 0, 2}},
+		{{4, 4, 2, 2}, {4, 8, 2, 2, 1, 3}, {16, 16, 4, 10, 0, 2}},
+		{{8, 16, 16, 1}, {2, 4, 4, 1, 0, 3}, {8, 8, 2, 4, 1, 2}, {16, 32, 32, 8, 0, 2}},
+	};
+	
+	public static final int[][][] UNITS = {
+		{{6}, {1, 2, 1}, {1, 2, 2}, {1, 2, 5}, {1, 2, 10}, {1, 2}, {1, 2}},
+		{{3}, {1, 1, 1}, {2, 1, 3}, {1, 1, 7}, {1, 1, 12}, {1, 1}, {2, 3}},
+		{{2}, {1, 1}, {1, 1}, {1, 1}, {1, 1}, {1, 1}, {1, 1}},
+		{{16}},
+	};
+	
+	private static final String OPCODES = String.join("\n",
+			"addi r1, r0, 0", "addi r2, r0, 12", "movi r7, 512",
+			"loop: beq r1, r2, done", "lw r3, r7, 0", "muli r4, r3, 3", "addi r4, r4, 1", "sw r4, r7, 0",
+			"divi r5, r4, 2", "modi r6, r4, 3", "add r3, r5, r6", "nand r3, r3, r5", "nor r6, r3, r4",
+			"sw r6, r7, 2", "addi r7, r7, 4", "addi r1, r1, 1", "jmp r0, -28",
+			"done: addi r3, r0, 5", "lui r4, 3", "ori r4, r4, 5", "andi r5, r4, 7", "and r6, r4, r5",
+			"or r6, r6, r3", "sub r6, r6, r3", "subi r6, r6, 1", "mul r6, r6, r6", "div r5, r6, r3", "mod r5, r6, r3",
+			"addi r2, r0, 33", "add r2, r2, r2", "jalr r1, r2", "beq r0, r0, end", "func: addi r3, r3, 7", "ret r1",
+			"end: bgt r3, r0, 2", "addi r3, r0, 0", "blt r3, r0, 0", "bge r3, r0, 0", "ble r3, r0, 0");
+	
+	private static final String NESTED = String.join("\n",
+			"movi r1, 512", "movi r2, 768", "addi r3, r0, 0", "addi r6, r0, 3",
+			"addi r4, r1, 0", "lw r5, r4, 0", "add r3, r3, r5", "addi r5, r5, 1", "sw r5, r4, 0",
+			"addi r4, r4, 2", "blt r4, r2, -12", "subi r6, r6, 1", "bgt r6, r0, -18", "sw r3, r1, -2");
+	
+	// Four independent loads to different lines per iteration
+	private static final String MISSES = String.join("\n",
+			"movi r1, 512", "movi r2, 2048",
+			"lw r3, r1, 0", "lw r4, r1, 16", "lw r5, r1, 32", "lw r6, r1, 48",
+			"add r3, r3, r4", "add r5, r5, r6", "add r7, r7, r3", "add r7, r7, r5",
+			"addi r1, r1, 32", "addi r1, r1, 32", "blt r1, r2, -22");
+	
+	// Each source register of each function read right after a slow divide writes it, so that the schedule shows which
+	// registers an instruction waits on
+	private static final String DEPENDENCIES = String.join("\n",
+			"movi r7, 512",
+			"divi r6, r7, 1", "sw r7, r6, 0", "divi r2, r7, 1", "sw r2, r7, 2",
+			"divi r3, r7, 1", "beq r0, r3, 0", "divi r4, r7, 1", "bne r4, r0, 0",
+			"divi r5, r0, 1", "jmp r5, 0",
+			"jalr r1, r1", "addi r1, r1, 6", "divi r1, r1, 1", "ret r1",
+			"addi r2, r0, 40", "divi r3, r2, 1", "jalr r4, r3", "addi r5, r0, 1",
+			"divi r6, r7, 1", "lw r5, r6, 2", "add r5, r5, r5",
+			"divi r3, r7, 1", "add r4, r0, r3", "divi r3, r7, 1", "add r4, r3, r0");
+	
+	public final String name;
+	public final String data;
+	public final String code;
+	public final int[] memory;
+	
+	public TestProgram(String name, String data, String code, int[] memory) {
+		this.name = name;
+		this.data = data;
+		this.code = code;
+		this.memory = memory;
+	}
+	
+	public static List<TestProgram> all() {
+		List<TestProgram> programs = examples();
+		StringBuilder data = new StringBuilder();
+		for (int i = 0; i < 12; i++)
+			data.append(512 + 4 * i).append(' ').append(i + 1).append('\n');
+		programs.add(new TestProgram("Opcodes", data.toString(), OPCODES, LARGE_MEMORY));
+		programs.add(new TestProgram("Nested loops", "", NESTED, LARGE_MEMORY));
+		programs.add(new TestProgram("Independent misses", "", MISSES, LARGE_MEMORY));
+		programs.add(new TestProgram("Register dependencies", "", DEPENDENCIES, LARGE_MEMORY));
+		return programs;
+	}
+	
+	// The code and data blocks of every "### Program" section, read from the repository root
+	public static List<TestProgram> examples() {
+		List<String> lines;
+		try {
+			lines = Files.readAllLines(Paths.get("EXAMPLES.md"));
+		} catch (IOException ex) {
+			throw new IllegalArgumentException("Can't read EXAMPLES.md, the tests run from the repository root");
+		}
+		
+		List<TestProgram> programs = new ArrayList<TestProgram>();
+		String name = null;
+		String[] blocks = new String[2];
+		int target = -1;
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i).trim();
+			if (line.startsWith("### ")) {
+				if (name != null)
+					programs.add(new TestProgram(name, blocks[1], blocks[0], SMALL_MEMORY));
+				name = line.substring(4);
+				blocks = new String[]{"", ""};
+			} else if (line.startsWith("* Code"))
+				target = 0;
+			else if (line.startsWith("* Data"))
+				target = 1;
+			else if (line.startsWith("```")) {
+				StringBuilder block = new StringBuilder();
+				while (++i < lines.size() && !lines.get(i).trim().startsWith("```"))
+					block.append(lines.get(i)).append('\n');
+				if (target != -1)
+					blocks[target] = block.toString();
+				target = -1;
+			}
+		}
+		if (name != null)
+			programs.add(new TestProgram(name, blocks[1], blocks[0], SMALL_MEMORY));
+		return programs;
+	}
+	
+	public Processor load(int[][] caches, int[][] units) {
+		int[][] config = new int[caches.length + 1][];
+		config[0] = memory.clone();
+		for (int i = 0; i < caches.length; i++)
+			config[i + 1] = caches[i].clone();
+		
+		int[][] unitsConfig = new int[units.length][];
+		for (int i = 0; i < units.length; i++)
+			unitsConfig[i] = units[i].clone();
+		
+		Processor processor = new Processor(config, unitsConfig);
+		assemble(processor);
+		return processor;
+	}
+	
+	// The assembler reports its parsing on the standard output
+	public void assemble(Processor processor) {
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			Assembler.assemble(data, code, processor);
+		} finally {
+			System.setOut(out);
+		}
+	}
+	
+	// Runs the program to its end, returning the message of the error it stopped on, if any
+	public static String run(Processor processor) {
+		try {
+			processor.execute(false);
+			return null;
+		} catch (IllegalArgumentException ex) {
+			return ex.getMessage();
+		}
+	}
+	
+	// The same through a plain InstructionSet, one decoded instruction at a time with no basic blocks or compiled code
+	public static String interpret(Processor processor) {
+		InstructionSet instructionSet = new InstructionSet(processor);
+		RegisterFile registerFile = processor.getRegisterFile();
+		Memory memory = processor.getMemory();
+		while (registerFile.getPc() <= memory.getLastInstructionAddress()) {
+			int oldPc = registerFile.getPc();
+			int word = processor.getInstructionCache().getInstruction(oldPc);
+			registerFile.incrementPc(2);
+			try {
+				instructionSet.execute(word);
+				if (!memory.isInstructionAddress(registerFile.getPc()))
+					throw new IllegalArgumentException("Invalid instruction address (" + registerFile.getPc() + ")");
+			} catch (IllegalArgumentException ex) {
+				registerFile.setPc(oldPc);
+				return ex.getMessage();
+			}
+			processor.getUnitSet().addExecutedInstruction(oldPc, word, instructionSet.getResult());
+		}
+		processor.getUnitSet().flush();
+		return null;
+	}
+	
+	// Everything a run leaves behind: registers, memory, cache contents and statistics, and the schedule
+	public static String state(Processor processor) {
+		StringBuilder state = new StringBuilder();
+		state.append("pc ").append(processor.getRegisterFile().getPc()).append('\n');
+		state.append(Arrays.deepToString(processor.getRegisterFile().displayRegisters(false))).append('\n');
+		state.append(Arrays.deepToString(processor.getMemory().displayDataWords(false))).append('\n');
+		state.append(Arrays.deepToString(processor.getInstructionCache().displayData())).append('\n');
+		for (int level = 0; processor.getDataCache(level) != null; level++)
+			state.append(Arrays.deepToString(processor.getDataCache(level).displayData(false))).append('\n');
+		if (processor.getUnitSet().getInstructions() > 0)
+			state.append(Arrays.deepToString(processor.getUnitSet().displaySchedule())).append('\n');
+		return state.toString();
+	}
+	
+	public String toString() {
+		return name;
+	}
+	
+}
@@ -0,0 +1,59 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Records every program once, then replays the trace under each cache and unit configuration, which must give the
+// schedule and cache statistics of running the program in detail under that configuration
+public class TraceTest {
+	
+	public static void main(String[] args) throws IOException {
+		int replays = 0;
+		File file = File.createTempFile("program", ".trace");
+		try {
+			for (TestProgram program : TestProgram.all()) {
+				Processor recorded = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+				recorded.startTrace(file.getPath());
+				recorded.execute(false);
+				
+				for (int[][] caches : TestProgram.CACHES)
+					for (int units = 0; units < 2; units++) {
+						String where = program + " " + caches.length + " " + units;
+						Processor detailed = program.load(caches, TestProgram.UNITS[units]);
+						detailed.execute(false);
+						
+						// The replay fetches the program's words through the instruction cache, but executes nothing
+						Processor replayed = program.load(caches, TestProgram.UNITS[units]);
+						long instructions = replayed.replayTrace(file.getPath());
+						assertEquals(detailed.getUnitSet().getInstructions(), instructions, where + " instructions");
+						assertEquals(detailed.getUnitSet().getCycles(), replayed.getUnitSet().getCycles(), where + " cycles");
+						assertEquals(statistics(detailed), statistics(replayed), where + " statistics");
+						replays++;
+					}
+			}
+		} finally {
+			file.delete();
+		}
+		System.out.println("TraceTest passed (" + replays + " replays)");
+	}
+	
+	// The schedule, and the hits, accesses and evictions of every cache level and of memory
+	private static String statistics(Processor processor) {
+		StringBuilder statistics = new StringBuilder();
+		statistics.append(Arrays.deepToString(processor.getUnitSet().displaySchedule())).append('\n');
+		statistics.append(processor.getInstructionCache().getHits()).append('/');
+		statistics.append(processor.getInstructionCache().getAccesses()).append('/');
+		statistics.append(processor.getInstructionCache().getEvictions()).append('\n');
+		for (int level = 0; processor.getDataCache(level) != null; level++) {
+			statistics.append(processor.getDataCache(level).getHits()).append('/');
+			statistics.append(processor.getDataCache(level).getAccesses()).append('/');
+			statistics.append(processor.getDataCache(level).getEvictions()).append('\n');
+		}
+		statistics.append(processor.getMemory().getDataAccesses()).append('\n');
+		return statistics.toString();
+	}
+	
+}
@@ -0,0 +1,65 @@
+package engine;
+
+import static engine.Assert.assertEquals;
+import static engine.Assert.assertTrue;
+
+import java.io.File;
+
+public class UnitSetTest {
+	
+	public static void main(String[] args) {
+		emptyStreamedSchedule();
+		failingTimingsFile();
+		storageReconfigured(false);
+		storageReconfigured(true);
+		System.out.println("UnitSetTest passed");
+	}
+	
+	private static void emptyStreamedSchedule() {
+		UnitSet unitSet = new UnitSet(TestProgram.UNITS[0]);
+		unitSet.setStreaming(true, null);
+		String summary = (String)unitSet.displaySchedule()[2];
+		assertTrue(summary.contains("IPC      : 0.00"), "IPC of no cycles (" + summary + ")");
+	}
+	
+	// Every write to /dev/full fails, which surfaces when the timings are flushed at the end of the run
+	private static void failingTimingsFile() {
+		if (!new File("/dev/full").exists())
+			return;
+		
+		TestProgram program = TestProgram.all().get(0);
+		Processor processor = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+		processor.getUnitSet().setStreaming(true, "/dev/full");
+		String error = TestProgram.run(processor);
+		assertEquals("Can't write the timings file (/dev/full)", error, "failing timings file");
+		
+		// The failed file is closed, so starting over doesn't fail again
+		processor.getUnitSet().setStreaming(true, null);
+		processor.clear();
+	}
+	
+	// Runs on the previous caches are dropped, and the next one is scheduled as on a processor built with the new caches
+	private static void storageReconfigured(boolean streaming) {
+		TestProgram program = TestProgram.all().get(0);
+		Processor processor = program.load(TestProgram.CACHES[0], TestProgram.UNITS[0]);
+		processor.getUnitSet().setStreaming(streaming, null);
+		assertEquals(null, TestProgram.run(processor), "first run");
+		assertTrue(processor.getUnitSet().getInstructions() > 0, "first run scheduled");
+		
+		int[][] config = new int[TestProgram.CACHES[2].length + 1][];
+		config[0] = program.memory.clone();
+		for (int i = 0; i < TestProgram.CACHES[2].length; i++)
+			config[i + 1] = TestProgram.CACHES[2][i].clone();
+		processor.configureStorage(config);
+		assertEquals(0, processor.getUnitSet().getInstructions(), "instructions after reconfiguring (streaming " + streaming + ")");
+		
+		processor.clear();
+		program.assemble(processor);
+		assertEquals(null, TestProgram.run(processor), "run after reconfiguring");
+		Processor expected = program.load(TestProgram.CACHES[2], TestProgram.UNITS[0]);
+		expected.getUnitSet().setStreaming(streaming, null);
+		assertEquals(null, TestProgram.run(expected), "expected run");
+		assertEquals(TestProgram.state(expected), TestProgram.state(processor), "state after reconfiguring (streaming " + streaming + ")");
+	}
+	
+}
@@ -0,0 +1,105 @@
+package engine.storage;
+
+import engine.types.AccessResult;
+import engine.types.ReplacementPolicy;
+import engine.types.WritePolicy;
+
+// Sweeps a 1024-line L1 over an L2 from direct mapped to fully associative with mixed reads and writes drawn from a
+// fixed seed, sets of DataCache.INDEXED_ASSOCIATIVITY ways and more being probed through their LineIndex. A second
+// table times the two probes alone, a scan of one set's tags against a LineIndex lookup, at each width.
+// Usage: AssociativityBenchmark [accesses] [rounds]
+public class AssociativityBenchmark {
+	
+	private static final int LINES = 1024;
+	
+	public static void main(String[] args) {
+		int accesses = (args.length > 0)? Integer.parseInt(args[0]) : 2000000;
+		int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 3;
+		int[] addresses = new int[accesses];
+		boolean[] stores = new boolean[accesses];
+		long seed = 0x2545F4914F6CDD1DL;
+		for (int i = 0; i < accesses; i++) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			// Mostly a 12KB working set, somewhat larger than the L1, with a quarter of the accesses anywhere in memory
+			int range = ((seed & 3) == 0)? 65536 - 256 : 12288;
+			addresses[i] = 256 + (int)((seed >>> 8) % (range / 2)) * 2;
+			stores[i] = ((seed >>> 4) & 1) != 0;
+		}
+		
+		System.out.printf("%-8s %-8s %12s %12s%n", "Ways", "Probe", "ns/access", "L1 hits");
+		for (int ways = 1; ways <= LINES; ways *= 2) {
+			long best = Long.MAX_VALUE;
+			DataCache l1 = null;
+			for (int round = 0; round < rounds; round++) {
+				DataCache l2 = new DataCache(32, 1024, 4, 10);
+				l2.setWritePolicies(WritePolicy.WRITE_BACK, WritePolicy.WRITE_ALLOCATE);
+				l2.setNextCacheLevel(new Memory(65536, 0, 256, 100));
+				l1 = new DataCache(8, LINES, ways, 2);
+				l1.setWritePolicies(WritePolicy.WRITE_BACK, WritePolicy.WRITE_ALLOCATE);
+				l1.setReplacementPolicy(ReplacementPolicy.LRU);
+				l1.setNextCacheLevel(l2);
+				
+				AccessResult access = new AccessResult();
+				long start = System.nanoTime();
+				for (int i = 0; i < accesses; i++) {
+					access.clear();
+					if (stores[i])
+						l1.writeWord(addresses[i], (short)i, access);
+					else
+						l1.readWord(addresses[i], access);
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			String probe = (ways >= DataCache.INDEXED_ASSOCIATIVITY)? "index" : "scan";
+			System.out.printf("%-8d %-8s %12.1f %12d%n", ways, probe, best * 1.0 / accesses, l1.getHits());
+		}
+		
+		System.out.println();
+		System.out.printf("%-8s %12s %12s%n", "Ways", "scan ns", "index ns");
+		int probes = accesses * 4;
+		for (int ways = 1; ways <= LINES; ways *= 2) {
+			int[] tags = new int[ways];
+			LineIndex index = new LineIndex(ways);
+			for (int way = 0; way < ways; way++) {
+				tags[way] = way * 3;
+				index.put(way * 3, way);
+			}
+			// One in three probes finds its tag
+			int[] keys = new int[probes];
+			for (int i = 0; i < probes; i++) {
+				seed ^= seed << 13;
+				seed ^= seed >>> 7;
+				seed ^= seed << 17;
+				keys[i] = (int)((seed >>> 8) % (ways * 3));
+			}
+			
+			long scan = Long.MAX_VALUE;
+			long lookup = Long.MAX_VALUE;
+			long found = 0;
+			for (int round = 0; round < rounds; round++) {
+				long start = System.nanoTime();
+				for (int i = 0; i < probes; i++) {
+					int key = keys[i];
+					int line = -1;
+					for (int way = ways - 1; way >= 0; way--)
+						line = (tags[way] == key)? way : line;
+					found += line;
+				}
+				scan = Math.min(scan, System.nanoTime() - start);
+				
+				start = System.nanoTime();
+				for (int i = 0; i < probes; i++)
+					found -= index.find(keys[i]);
+				lookup = Math.min(lookup, System.nanoTime() - start);
+			}
+			// The two probes must agree, which also keeps their results alive
+			if (found != 0)
+				throw new AssertionError("Scan and index disagree at " + ways + " ways");
+			
+			System.out.printf("%-8d %12.2f %12.2f%n", ways, scan * 1.0 / probes, lookup * 1.0 / probes);
+		}
+	}
+	
+}
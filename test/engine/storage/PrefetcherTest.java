@@ -0,0 +1,63 @@
+package engine.storage;
+
+import static engine.Assert.assertEquals;
+import static engine.Assert.assertTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+import engine.Assembler;
+import engine.Processor;
+import engine.types.AccessResult;
+import engine.types.PrefetchPolicy;
+import engine.types.WritePolicy;
+
+public class PrefetcherTest {
+	
+	public static void main(String[] args) {
+		strideRepeatedAddress();
+		strideRepeatedAddressInProgram();
+		System.out.println("PrefetcherTest passed");
+	}
+	
+	// The same load walks 32..40 by 2 and then sees 40 again. The confident entry prefetches one line ahead at 38 and 40,
+	// and the zero stride repeats prefetch nothing
+	private static void strideRepeatedAddress() {
+		DataCache cache = new DataCache(8, 8, 2, 2);
+		cache.setWritePolicies(WritePolicy.WRITE_BACK, WritePolicy.WRITE_ALLOCATE);
+		cache.setPrefetchPolicy(PrefetchPolicy.STRIDE);
+		cache.setNextCacheLevel(new Memory(1024, 0, 32, 10));
+		
+		AccessResult access = new AccessResult();
+		for (int address : new int[]{32, 34, 36, 38, 40, 40, 40}) {
+			access.clear();
+			access.setPc(8);
+			cache.readWord(address, access);
+		}
+		assertEquals(2, cache.getPrefetches(), "stride prefetches");
+	}
+	
+	// Same walk through a program, the stride register dropping to 0 once r1 reaches 40
+	private static void strideRepeatedAddressInProgram() {
+		String program = String.join("\n",
+				"addi r1, r0, 32", "addi r2, r0, 40", "addi r3, r0, 2", "addi r5, r0, 7",
+				"lw r4, r1, 0", "blt r1, r2, 2", "addi r3, r0, 0", "add r1, r1, r3", "subi r5, r5, 1", "bgt r5, r0, -12");
+		int[][] caches = {{1024, 0, 32, 10}, {4, 4, 2, 2}, {8, 8, 2, 2, 0, 2, 1, PrefetchPolicy.STRIDE.ordinal()}};
+		int[][] units = {{6}, {1, 2, 1}, {1, 2, 2}, {1, 2, 5}, {1, 2, 10}, {1, 2}, {1, 2}};
+		Processor processor = new Processor(caches, units);
+		
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			Assembler.assemble("40 7", program, processor);
+		} finally {
+			System.setOut(out);
+		}
+		
+		assertTrue(processor.execute(false), "program ended");
+		assertEquals(40, processor.getRegisterFile().getRegister(1).getValue(), "r1");
+		assertEquals(7, processor.getRegisterFile().getRegister(4).getValue(), "r4");
+		assertEquals(2, processor.getDataCache(0).getPrefetches(), "stride prefetches");
+	}
+	
+}
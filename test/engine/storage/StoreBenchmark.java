@@ -0,0 +1,66 @@
+package engine.storage;
+
+import engine.types.AccessResult;
+import engine.types.WritePolicy;
+
+// Store heavy accesses (3 in 4 are stores) through a two-level hierarchy, once per L1 write policy pair. Half the
+// accesses walk memory word by word and half land at random, all drawn from a fixed seed so that hit counts can be
+// compared between builds. Usage: StoreBenchmark [accesses] [rounds]
+public class StoreBenchmark {
+	
+	private static final WritePolicy[][] POLICIES = {
+		{WritePolicy.WRITE_BACK, WritePolicy.WRITE_ALLOCATE},
+		{WritePolicy.WRITE_THROUGH, WritePolicy.WRITE_AROUND},
+		{WritePolicy.WRITE_BACK, WritePolicy.WRITE_AROUND},
+		{WritePolicy.WRITE_THROUGH, WritePolicy.WRITE_ALLOCATE},
+	};
+	
+	public static void main(String[] args) {
+		int accesses = (args.length > 0)? Integer.parseInt(args[0]) : 5000000;
+		int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 5;
+		int[] addresses = new int[accesses];
+		boolean[] stores = new boolean[accesses];
+		long seed = 0x9E3779B97F4A7C15L;
+		int walk = 256;
+		for (int i = 0; i < accesses; i++) {
+			seed ^= seed << 13;
+			seed ^= seed >>> 7;
+			seed ^= seed << 17;
+			if ((seed & 1) == 0) {
+				walk = (walk + 2 < 65536)? walk + 2 : 256;
+				addresses[i] = walk;
+			} else
+				addresses[i] = 256 + (int)((seed >>> 8) % ((65536 - 256) / 2)) * 2;
+			stores[i] = ((seed >>> 4) & 3) != 0;
+		}
+		
+		System.out.printf("%-30s %12s %12s %12s%n", "L1 policies", "ns/access", "L1 hits", "L2 hits");
+		for (WritePolicy[] policies : POLICIES) {
+			long best = Long.MAX_VALUE;
+			DataCache l1 = null;
+			DataCache l2 = null;
+			for (int round = 0; round < rounds; round++) {
+				l2 = new DataCache(32, 256, 4, 10);
+				l2.setWritePolicies(WritePolicy.WRITE_BACK, WritePolicy.WRITE_ALLOCATE);
+				l2.setNextCacheLevel(new Memory(65536, 0, 256, 100));
+				l1 = new DataCache(8, 64, 2, 2);
+				l1.setWritePolicies(policies[0], policies[1]);
+				l1.setNextCacheLevel(l2);
+				
+				AccessResult access = new AccessResult();
+				long start = System.nanoTime();
+				for (int i = 0; i < accesses; i++) {
+					access.clear();
+					if (stores[i])
+						l1.writeWord(addresses[i], (short)i, access);
+					else
+						l1.readWord(addresses[i], access);
+				}
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("%-30s %12.1f %12d %12d%n", policies[0] + "/" + policies[1], best * 1.0 / accesses,
+					l1.getHits(), l2.getHits());
+		}
+	}
+	
+}
@@ -0,0 +1,100 @@
+package engine.storage;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+
+// Times the probe of one set's tags three ways at each associativity: a scan checking a valid flag and exiting on the
+// first match, the branch-free scan DataCache uses, and an IntVector compare of the preferred species. Four in five
+// probes hit. The Vector API is still incubating, so the benchmark needs --add-modules jdk.incubator.vector.
+// Usage: TagCompareBenchmark [probes] [rounds]
+public class TagCompareBenchmark {
+	
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+	private static final int SETS = 64;
+	
+	public static void main(String[] args) {
+		int probes = (args.length > 0)? Integer.parseInt(args[0]) : 4000000;
+		int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 10;
+		System.out.printf("IntVector lanes: %d%n", SPECIES.length());
+		System.out.printf("%-8s %14s %14s %14s%n", "Ways", "valid&&tag ns", "branch-free ns", "IntVector ns");
+		long seed = 0x5DEECE66DL;
+		for (int ways = 4; ways <= 64; ways *= 2) {
+			int[] tags = new int[SETS * ways];
+			boolean[] valid = new boolean[tags.length];
+			for (int line = 0; line < tags.length; line++) {
+				tags[line] = (line % ways) * 7 + line / ways;
+				valid[line] = true;
+			}
+			
+			int[] firsts = new int[probes];
+			int[] keys = new int[probes];
+			for (int i = 0; i < probes; i++) {
+				seed ^= seed << 13;
+				seed ^= seed >>> 7;
+				seed ^= seed << 17;
+				int set = (int)((seed >>> 8) % SETS);
+				firsts[i] = set * ways;
+				// Tags of other sets never match, so they stand for misses
+				boolean hit = (seed & 0xff) < 205;
+				keys[i] = hit? tags[firsts[i] + (int)((seed >>> 40) % ways)] : -2 - set;
+			}
+			
+			long[] best = {Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE};
+			long[] found = new long[3];
+			for (int round = 0; round < rounds; round++)
+				for (int probe = 0; probe < 3; probe++) {
+					long sum = 0;
+					long start = System.nanoTime();
+					for (int i = 0; i < probes; i++) {
+						if (probe == 0)
+							sum += scan(tags, valid, firsts[i], ways, keys[i]);
+						else if (probe == 1)
+							sum += branchFree(tags, firsts[i], ways, keys[i]);
+						else
+							sum += vector(tags, firsts[i], ways, keys[i]);
+					}
+					best[probe] = Math.min(best[probe], System.nanoTime() - start);
+					found[probe] = sum;
+				}
+			// The three probes must agree, which also keeps their results alive
+			if (found[0] != found[1] || found[0] != found[2])
+				throw new AssertionError("Probes disagree at " + ways + " ways");
+			
+			System.out.printf("%-8d %14.2f %14.2f %14.2f%n", ways, best[0] * 1.0 / probes, best[1] * 1.0 / probes,
+					best[2] * 1.0 / probes);
+		}
+	}
+	
+	private static int scan(int[] tags, boolean[] valid, int first, int ways, int tag) {
+		for (int way = first; way < first + ways; way++)
+			if (valid[way] && tags[way] == tag)
+				return way;
+		return -1;
+	}
+	
+	private static int branchFree(int[] tags, int first, int ways, int tag) {
+		int line = -1;
+		for (int way = first + ways - 1; way >= first; way--)
+			line = (tags[way] == tag)? way : line;
+		return line;
+	}
+	
+	// Whole vectors are loaded unmasked, only a set narrower than a vector or its tail taking a masked load
+	private static int vector(int[] tags, int first, int ways, int tag) {
+		int i = 0;
+		for (; i <= ways - SPECIES.length(); i += SPECIES.length()) {
+			VectorMask<Integer> hit = IntVector.fromArray(SPECIES, tags, first + i).eq(tag);
+			if (hit.anyTrue())
+				return first + i + hit.firstTrue();
+		}
+		if (i < ways) {
+			VectorMask<Integer> range = SPECIES.indexInRange(i, ways);
+			VectorMask<Integer> hit = IntVector.fromArray(SPECIES, tags, first + i, range).eq(tag).and(range);
+			if (hit.anyTrue())
+				return first + i + hit.firstTrue();
+		}
+		return -1;
+	}
+	
+}
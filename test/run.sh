@@ -0,0 +1,13 @@
+#!/bin/sh
+# Compiles the sources with the tests and runs every *Test class, from the repository root. Benchmarks (*Benchmark)
+# take the same class path and are run by hand, TagCompareBenchmark with --add-modules jdk.incubator.vector
+set -e
+out=$(mktemp -d)
+trap 'rm -rf "$out"' EXIT
+javac -nowarn --add-modules jdk.incubator.vector -d "$out" $(find src test -name '*.java')
+failed=0
+for file in $(cd test && find . -name '*Test.java' | sort); do
+	class=$(echo "$file" | sed 's|^\./||; s|\.java$||; s|/|.|g')
+	java -cp "$out" "$class" || failed=1
+done
+exit $failed